@@ -0,0 +1,98 @@
+package org.servantscode.commons.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchInsertBenchmark {
+    @Param({"10000"})
+    public int rows;
+
+    private BatchInsertBuilder<Member> batch;
+    private BatchInsertBuilder<Member> multiRow;
+    private BatchInsertBuilder<Member> copy;
+    private List<Member> members;
+    private Connection conn;
+    private PreparedStatement stmt;
+
+    public static class Member {
+        final String name;
+        final String email;
+        final LocalDate birthdate;
+        final boolean active;
+
+        Member(int i) {
+            this.name = "Member " + i;
+            this.email = "member" + i + "@example.com";
+            this.birthdate = LocalDate.of(1950, 1, 1).plusDays(i);
+            this.active = i % 2 == 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        members = new ArrayList<>(rows);
+        for(int i=0; i<rows; i++)
+            members.add(new Member(i));
+
+        batch = build(BatchInsertBuilder.InsertMode.BATCH);
+        multiRow = build(BatchInsertBuilder.InsertMode.MULTI_ROW);
+        copy = build(BatchInsertBuilder.InsertMode.COPY);
+        stmt = StubJdbc.statement();
+        conn = StubJdbc.connection(stmt);
+    }
+
+    // One addBatch per row; the driver then sends one INSERT per row.
+    @Benchmark
+    public PreparedStatement fillBatch() {
+        batch.fillStatement(stmt);
+        return stmt;
+    }
+
+    @Benchmark
+    public int executeMultiRow() throws SQLException {
+        return multiRow.execute(conn);
+    }
+
+    @Benchmark
+    public int encodeCopy() {
+        StringBuilder out = new StringBuilder(rows * 64);
+        for(Member member: members)
+            copy.encodeCopyRow(out, member);
+        return out.length();
+    }
+
+    // ----- Private -----
+    private BatchInsertBuilder<Member> build(BatchInsertBuilder.InsertMode mode) {
+        return new BatchInsertBuilder<Member>().into("person")
+                .value("org_id", 1)
+                .valueSource("name", m -> m.name)
+                .valueSource("email", m -> m.email)
+                .valueSource("birthdate", m -> m.birthdate)
+                .valueSource("active", m -> m.active)
+                .mode(mode)
+                .addBatches(members);
+    }
+}
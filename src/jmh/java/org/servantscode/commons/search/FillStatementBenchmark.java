@@ -0,0 +1,59 @@
+package org.servantscode.commons.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FillStatementBenchmark {
+    @Param({"simple", "joins", "cte", "subquery"})
+    public String shape;
+
+    private QueryBuilder query;
+    private InsertBuilder insert;
+    private PreparedStatement stmt;
+
+    @Setup
+    public void setup() {
+        query = QueryBuilderBenchmark.build(shape);
+        insert = new InsertBuilder().into("person")
+                .value("name", "Smith")
+                .value("email", "smith@example.com")
+                .value("male", true)
+                .value("birthdate", LocalDate.of(1980, 1, 1))
+                .value("last_login", ZonedDateTime.now())
+                .value("family_id", 0)
+                .value("org_id", 1);
+        stmt = StubJdbc.statement();
+    }
+
+    @Benchmark
+    public PreparedStatement fillQuery() {
+        query.fillStatement(stmt);
+        return stmt;
+    }
+
+    @Benchmark
+    public PreparedStatement fillInsert() {
+        insert.fillStatement(stmt);
+        return stmt;
+    }
+}
@@ -0,0 +1,86 @@
+package org.servantscode.commons.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBuilderBenchmark {
+    @Param({"simple", "joins", "cte", "subquery"})
+    public String shape;
+
+    private QueryTemplate template;
+    private Object[] values;
+
+    @Setup
+    public void setup() {
+        template = QueryTemplate.of(build(shape));
+        values = new Object[template.getParameterCount()];
+        for(int i=0; i<values.length; i++)
+            values[i] = i + 1;
+    }
+
+    // Builds the query and generates its sql, as a DB class does per request.
+    @Benchmark
+    public String buildAndGetSql() {
+        return build(shape).getSql();
+    }
+
+    @Benchmark
+    public String templateBindAndGetSql() {
+        return template.bind(values).getSql();
+    }
+
+    // ----- Private -----
+    static QueryBuilder build(String shape) {
+        switch (shape) {
+            case "simple":
+                return new QueryBuilder().select("*").from("person").where("org_id=?", 1).page("name", 0, 25);
+            case "joins":
+                return new QueryBuilder().select("p.*", "f.surname", "a.street", "count(d.id) AS donations")
+                        .from("person p")
+                        .leftJoin("family f ON f.id=p.family_id")
+                        .leftJoin("address a ON a.id=f.address_id")
+                        .leftJoin("donation d ON d.person_id=p.id AND d.date > ?", "2020-01-01")
+                        .where("p.org_id=?", 1).where("p.inactive=?", false)
+                        .groupBy("p.id", "f.surname", "a.street")
+                        .page("p.name", 0, 25);
+            case "cte":
+                return new QueryBuilder()
+                        .withCte("recent AS (SELECT person_id, max(date) AS last_gift FROM donation WHERE org_id=? GROUP BY person_id)", 1)
+                        .withCte("active AS (SELECT id FROM person WHERE org_id=? AND inactive=?)", 1, false)
+                        .select("p.*", "r.last_gift")
+                        .from("person p")
+                        .innerJoin("active a ON a.id=p.id")
+                        .leftJoin("recent r ON r.person_id=p.id")
+                        .where("p.org_id=?", 1)
+                        .page("r.last_gift DESC", 0, 25);
+            case "subquery":
+                return new QueryBuilder().select("*").from("person")
+                        .leftJoin(new QueryBuilder().select("person_id", "sum(amount) AS total").from("donation").where("org_id=?", 1).groupBy("person_id"),
+                                "t", "t.person_id=person.id")
+                        .where("org_id=?", 1)
+                        .whereIdIn("family_id", new QueryBuilder().select("id").from("family")
+                                .where("org_id=?", 1)
+                                .whereIdIn("address_id", new QueryBuilder().select("id").from("address").where("city=?", "Austin")))
+                        .page("name", 0, 25);
+            default:
+                throw new IllegalArgumentException("Unknown query shape: " + shape);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.servantscode.commons.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchParserBenchmark {
+    // Larger than the default search cache, so cycling through the variants always misses.
+    private static final int COLD_VARIANTS = 4096;
+
+    @Param({"simple", "compound", "nested", "range"})
+    public String shape;
+
+    private SearchParser<Person> parser;
+    private String search;
+    private String[] coldSearches;
+    private int next = 0;
+
+    public static class Person {
+        private String name;
+        private String email;
+        private boolean male;
+        private int age;
+        private LocalDate birthdate;
+        private ZonedDateTime lastLogin;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getEmail() { return email; }
+        public void setEmail(String email) { this.email = email; }
+        public boolean isMale() { return male; }
+        public void setMale(boolean male) { this.male = male; }
+        public int getAge() { return age; }
+        public void setAge(int age) { this.age = age; }
+        public LocalDate getBirthdate() { return birthdate; }
+        public void setBirthdate(LocalDate birthdate) { this.birthdate = birthdate; }
+        public ZonedDateTime getLastLogin() { return lastLogin; }
+        public void setLastLogin(ZonedDateTime lastLogin) { this.lastLogin = lastLogin; }
+    }
+
+    @Setup
+    public void setup() {
+        parser = new SearchParser<>(Person.class, "name");
+        search = searchFor(shape, "smith");
+        coldSearches = new String[COLD_VARIANTS];
+        for(int i=0; i<COLD_VARIANTS; i++)
+            coldSearches[i] = searchFor(shape, "smith" + i);
+    }
+
+    @Benchmark
+    public Search parse() {
+        return parser.parse(search);
+    }
+
+    @Benchmark
+    public Search parseUncached() {
+        next = (next + 1) % COLD_VARIANTS;
+        return parser.parse(coldSearches[next]);
+    }
+
+    @Benchmark
+    public String[] parseText() {
+        return parser.parseText(search);
+    }
+
+    // ----- Private -----
+    private static String searchFor(String shape, String name) {
+        switch (shape) {
+            case "simple":
+                return name;
+            case "compound":
+                return String.format("name:%s AND male:true AND email:\"%s@example.com\"", name, name);
+            case "nested":
+                return String.format("(name:%s OR email:%s) AND (male:true OR (age:30 AND birthdate:1990-01-01))", name, name);
+            case "range":
+                return String.format("name:%s age:[21 TO 65] birthdate:[1950-01-01 TO 2000-12-31] lastLogin:[2020-01-01 TO *]", name);
+            default:
+                throw new IllegalArgumentException("Unknown search shape: " + shape);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.servantscode.commons.search;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+// JDBC stand-ins for the benchmarks. They accept and discard every call so only the builder's work is measured.
+class StubJdbc {
+    static PreparedStatement statement() {
+        return (PreparedStatement) Proxy.newProxyInstance(StubJdbc.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                    Class<?> returnType = method.getReturnType();
+                    if(returnType == boolean.class) return false;
+                    if(returnType == int.class) return 0;
+                    if(returnType == long.class) return 0L;
+                    return null;
+                });
+    }
+
+    // Hands out the given statement for every prepareStatement call.
+    static Connection connection(PreparedStatement stmt) {
+        return (Connection) Proxy.newProxyInstance(StubJdbc.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) ->
+                        method.getName().equals("prepareStatement")? stmt: null);
+    }
+}
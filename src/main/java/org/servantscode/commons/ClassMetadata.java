@@ -0,0 +1,177 @@
+package org.servantscode.commons;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+// Per-class index of bean accessors, keyed by json field name (see ReflectionUtils.getFieldName).
+// Built once per class on first use; the field map is immutable. Dotted paths are resolved lazily and remembered.
+public class ClassMetadata {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    // Paths come from client search strings; don't let unknown ones grow the cache without bound.
+    private static final int MAX_CACHED_PATHS = 1024;
+
+    private static final ClassValue<ClassMetadata> METADATA = new ClassValue<ClassMetadata>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> clazz) {
+            return new ClassMetadata(clazz);
+        }
+    };
+
+    private final Class<?> clazz;
+    private final Map<String, FieldInfo> fields;
+    private final List<FieldInfo> readableFields;
+    private final Map<String, Optional<FieldInfo>> paths = new ConcurrentHashMap<>();
+
+    private ClassMetadata(Class<?> clazz) {
+        this.clazz = clazz;
+
+        // Same precedence as ReflectionUtils.getGetter/getSetter: first match in getMethods() order wins.
+        Map<String, Method> getters = new LinkedHashMap<>();
+        Map<String, Method> setters = new LinkedHashMap<>();
+        for(Method m: clazz.getMethods()) {
+            if(ReflectionUtils.isGetter(m) && isAccessorName(m))
+                getters.putIfAbsent(ReflectionUtils.getFieldName(m), m);
+            else if(ReflectionUtils.isSetter(m) && isAccessorName(m))
+                setters.putIfAbsent(ReflectionUtils.getFieldName(m), m);
+        }
+
+        Map<String, FieldInfo> fields = new LinkedHashMap<>();
+        List<FieldInfo> readable = new ArrayList<>(getters.size());
+        getters.forEach((name, getter) -> {
+            FieldInfo field = new FieldInfo(name, getter, setters.get(name));
+            fields.put(name, field);
+            readable.add(field);
+        });
+        setters.forEach((name, setter) -> fields.putIfAbsent(name, new FieldInfo(name, null, setter)));
+
+        this.fields = unmodifiableMap(fields);
+        this.readableFields = unmodifiableList(readable);
+    }
+
+    public static ClassMetadata of(Class<?> clazz) {
+        return METADATA.get(clazz);
+    }
+
+    public Class<?> getType() { return clazz; }
+
+    // Fields declared directly on this class.
+    public FieldInfo getField(String fieldName) {
+        return fields.get(fieldName);
+    }
+
+    public Map<String, FieldInfo> getFields() { return fields; }
+
+    // Fields with a getter, in the order the getters are declared.
+    public List<FieldInfo> getReadableFields() { return readableFields; }
+
+    // Resolves a dotted path (e.g. "address.city") through getter return types.
+    public FieldInfo getPath(String path) {
+        Optional<FieldInfo> field = paths.get(path);
+        if(field != null)
+            return field.orElse(null);
+
+        // Not computeIfAbsent: self-referencing types resolve back into this map.
+        field = Optional.ofNullable(resolvePath(path));
+        if(paths.size() < MAX_CACHED_PATHS)
+            paths.putIfAbsent(path, field);
+        return field.orElse(null);
+    }
+
+    public static class FieldInfo {
+        private final String name;
+        private final Class<?> type;
+        private final Method getter;
+        private final Method setter;
+        private final MethodHandle getHandle;
+        private final MethodHandle setHandle;
+
+        private FieldInfo(String name, Method getter, Method setter) {
+            this.name = name;
+            this.type = getter != null? getter.getReturnType(): null;
+            this.getter = getter;
+            this.setter = setter;
+            this.getHandle = getter != null && getter.getParameterCount() == 0? handle(getter, GETTER_TYPE): null;
+            this.setHandle = setter != null && setter.getParameterCount() == 1? handle(setter, SETTER_TYPE): null;
+        }
+
+        public String getName() { return name; }
+        public Class<?> getType() { return type; }
+        public Method getGetter() { return getter; }
+        public Method getSetter() { return setter; }
+        public boolean isReadable() { return getter != null; }
+        public boolean isWritable() { return setter != null; }
+
+        public Object get(Object target) {
+            if(getter == null)
+                throw new IllegalStateException("No getter for field: " + name);
+
+            try {
+                return getHandle != null? getHandle.invokeExact(target): getter.invoke(target);
+            } catch (Throwable t) {
+                throw new RuntimeException("Could not get value from: " + getter.getName(), unwrap(t));
+            }
+        }
+
+        public void set(Object target, Object value) {
+            if(setter == null)
+                throw new IllegalStateException("No setter for field: " + name);
+
+            try {
+                if(setHandle != null)
+                    setHandle.invokeExact(target, value);
+                else
+                    setter.invoke(target, value);
+            } catch (Throwable t) {
+                throw new RuntimeException("Could not set value with: " + setter.getName(), unwrap(t));
+            }
+        }
+    }
+
+    // ----- Private -----
+    private FieldInfo resolvePath(String path) {
+        int dot = path.indexOf('.');
+        if(dot < 0)
+            return fields.get(path);
+
+        FieldInfo parent = fields.get(path.substring(0, dot));
+        if(parent == null || parent.getType() == null)
+            return null;
+
+        return of(parent.getType()).getPath(path.substring(dot + 1));
+    }
+
+    // Bare "get", "set" or "is" methods are not accessors.
+    private static boolean isAccessorName(Method m) {
+        String name = m.getName();
+        return name.length() > (name.startsWith("is")? 2: 3) || m.getAnnotation(JsonProperty.class) != null;
+    }
+
+    // Falls back to plain reflection when the accessor can't be unreflected (e.g. inaccessible declaring class).
+    private static MethodHandle handle(Method m, MethodType type) {
+        try {
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m).asType(type);
+        } catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof InvocationTargetException? t.getCause(): t;
+    }
+}
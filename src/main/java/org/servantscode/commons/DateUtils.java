@@ -18,25 +18,14 @@ public class DateUtils {
 
     private static final ZoneId DEFAULT_TIMEZONE = ZoneId.of("America/Chicago");
 
+    // Parsed once per cached configuration snapshot. See ConfigDB.
     public static ZoneId getTimeZone() {
-        LOG.trace("Getting timezone");
-        String zone;
         try {
-            zone = db.getConfiguration("timezone");
+            return db.getConfiguration("timezone", DateUtils::parseTimeZone);
         } catch (Throwable t) {
             LOG.error("Failed to get timezone configuration! ", t);
             throw t;
         }
-        LOG.trace("got configuration: " + zone);
-        if(isEmpty(zone)) return DEFAULT_TIMEZONE;
-
-        try {
-            LOG.trace("getting zoneId");
-            return ZoneId.of(zone);
-        } catch(DateTimeException e) {
-            LOG.error("Invalid timezone string encountered: " + zone + ". Using US Central timezone as default.");
-            return DEFAULT_TIMEZONE;
-        }
     }
 
     public static ZonedDateTime parse(String input) {
@@ -62,4 +51,17 @@ public class DateUtils {
             return null;
         return ZonedDateTime.ofInstant(input.toInstant(), ZoneId.of("Z"));
     }
+
+    // ----- Private -----
+    private static ZoneId parseTimeZone(String zone) {
+        if(isEmpty(zone))
+            return DEFAULT_TIMEZONE;
+
+        try {
+            return ZoneId.of(zone);
+        } catch(DateTimeException e) {
+            LOG.error("Invalid timezone string encountered: " + zone + ". Using US Central timezone as default.");
+            return DEFAULT_TIMEZONE;
+        }
+    }
 }
@@ -22,23 +22,13 @@ import static java.util.Arrays.stream;
 public class ReflectionUtils {
     private static final Logger LOG = LogManager.getLogger(ReflectionUtils.class);
     public static Class<?> getDeepFieldType(Class<?> clazz, String fieldName) {
-        String[] fieldPath = fieldName.split("\\.");
-
-        Class<?> currentClazz = clazz;
-        for(String field: fieldPath) {
-            currentClazz = getFieldType(currentClazz, field);
-            if(currentClazz == null)
-                return null;
-        }
-
-        return currentClazz;
+        ClassMetadata.FieldInfo field = ClassMetadata.of(clazz).getPath(fieldName);
+        return field != null? field.getType(): null;
     }
 
     public static Class<?> getFieldType(Class<?> clazz, String fieldName) {
-        Method getter = getGetter(clazz, fieldName);
-        if(getter == null)
-            return null;
-        return getter.getReturnType();
+        ClassMetadata.FieldInfo field = ClassMetadata.of(clazz).getField(fieldName);
+        return field != null? field.getType(): null;
     }
 
     public static <T> String getFieldValue(Method m, T d) {
@@ -59,13 +49,13 @@ public class ReflectionUtils {
 
     // Find accessors
     public static Method getGetter(Class<?> clazz, String fieldName) {
-        List<Method> methods = filterMethods(clazz, m -> isGetter(m) && getFieldName(m).equals(fieldName));
-        return methods.size() > 0? methods.get(0): null;
+        ClassMetadata.FieldInfo field = ClassMetadata.of(clazz).getField(fieldName);
+        return field != null? field.getGetter(): null;
     }
 
     public static Method getSetter(Class<?> clazz, String fieldName) {
-        List<Method> methods = filterMethods(clazz, m -> isSetter(m) && getFieldName(m).equals(fieldName));
-        return methods.size() > 0? methods.get(0): null;
+        ClassMetadata.FieldInfo field = ClassMetadata.of(clazz).getField(fieldName);
+        return field != null? field.getSetter(): null;
     }
 
     public static List<Method> getSetters(Class<?> clazz) {
@@ -121,14 +111,15 @@ public class ReflectionUtils {
             throw new RuntimeException("Unamppable data provided: " + data, e);
         }
 
+        ClassMetadata metadata = ClassMetadata.of(clazz);
         data.keySet().forEach(key -> {
-            try {
-                Method getter = getGetter(clazz, key);
-                Object value = getter.invoke(updates);
+            ClassMetadata.FieldInfo field = metadata.getField(key);
+            if(field == null || !field.isReadable() || !field.isWritable())
+                throw new RuntimeException("Failed to update field: " + key);
 
-                Method setter = getSetter(clazz, key);
-                setter.invoke(existing, value);
-            } catch (IllegalAccessException | InvocationTargetException e) {
+            try {
+                field.set(existing, field.get(updates));
+            } catch (RuntimeException e) {
                 throw new RuntimeException("Failed to update field: " + key, e);
             }
         });
@@ -0,0 +1,227 @@
+package org.servantscode.commons.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+// Bounded, least recently used cache with a time to live on each entry.
+// Null values are cached as well (negative caching) and may be given their own, shorter, time to live.
+// Optionally bounded by total weight too (e.g. rows held), with least recently used entries evicted until both bounds hold.
+public class ExpiringCache<K, V> {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<K, CacheEntry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight = 0;
+    // Loads in flight. Invalidating or replacing a key drops its token, and a load whose token is gone is not stored:
+    // it may have read the value from before the change.
+    private final Map<K, Object> loading = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ExpiringCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, ttlMillis);
+    }
+
+    public ExpiringCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this(maxEntries, Long.MAX_VALUE, value -> 0, ttlMillis, negativeTtlMillis, System::currentTimeMillis);
+    }
+
+    public ExpiringCache(int maxEntries, long maxWeight, ToLongFunction<? super V> weigher, long ttlMillis) {
+        this(maxEntries, maxWeight, weigher, ttlMillis, ttlMillis, System::currentTimeMillis);
+    }
+
+    ExpiringCache(int maxEntries, long ttlMillis, long negativeTtlMillis, LongSupplier clock) {
+        this(maxEntries, Long.MAX_VALUE, value -> 0, ttlMillis, negativeTtlMillis, clock);
+    }
+
+    ExpiringCache(int maxEntries, long maxWeight, ToLongFunction<? super V> weigher, long ttlMillis, long negativeTtlMillis, LongSupplier clock) {
+        if(maxEntries <= 0)
+            throw new IllegalArgumentException("Cache must hold at least one entry.");
+
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        return get(key, loader, value -> value == null? negativeTtlMillis: ttlMillis);
+    }
+
+    // Loads outside of the cache lock so a slow loader does not block other keys.
+    // The ttl function allows values to carry their own lifetime. A ttl <= 0 is not cached.
+    public V get(K key, Function<? super K, ? extends V> loader, ToLongFunction<? super V> ttl) {
+        Object token = new Object();
+        synchronized (entries) {
+            CacheEntry<V> entry = liveEntry(key);
+            if(entry != null) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            loading.put(key, token);
+        }
+
+        misses.incrementAndGet();
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            synchronized (entries) {
+                loading.remove(key, token);
+            }
+            throw e;
+        }
+        store(key, value, ttl.applyAsLong(value), token);
+        return value;
+    }
+
+    // Doesn't load, and doesn't count towards hits or misses.
+    public V getIfPresent(K key) {
+        synchronized (entries) {
+            CacheEntry<V> entry = liveEntry(key);
+            return entry != null? entry.value: null;
+        }
+    }
+
+    public boolean containsKey(K key) {
+        synchronized (entries) {
+            return liveEntry(key) != null;
+        }
+    }
+
+    public void put(K key, V value) {
+        put(key, value, value == null? negativeTtlMillis: ttlMillis);
+    }
+
+    public void put(K key, V value, long ttlMillis) {
+        store(key, value, ttlMillis, null);
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            loading.remove(key);
+            removed(entries.remove(key));
+        }
+    }
+
+    // An in flight load can't be tested against the filter, so every one is dropped.
+    public void invalidateIf(BiPredicate<? super K, ? super V> filter) {
+        synchronized (entries) {
+            loading.clear();
+            entries.entrySet().removeIf(e -> {
+                if(!filter.test(e.getKey(), e.getValue().value))
+                    return false;
+                removed(e.getValue());
+                return true;
+            });
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            loading.clear();
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (entries) {
+            return totalWeight;
+        }
+    }
+
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExpiringCache(size: %d/%d, hits: %d, misses: %d)", size(), maxEntries, hits.get(), misses.get());
+    }
+
+    // ----- Private -----
+    // A load (token set) is only stored if nothing invalidated or replaced its key meanwhile. A direct put supersedes any load.
+    private void store(K key, V value, long ttlMillis, Object token) {
+        CacheEntry<V> entry = new CacheEntry<>(value, clock.getAsLong() + ttlMillis, value != null? weigher.applyAsLong(value): 0);
+        synchronized (entries) {
+            if(token == null)
+                loading.remove(key);
+            else if(!loading.remove(key, token))
+                return;
+            if(ttlMillis <= 0)
+                return;
+
+            //Too heavy to keep. Don't flush everything else trying.
+            if(entry.weight > maxWeight) {
+                removed(entries.remove(key));
+                return;
+            }
+            removed(entries.put(key, entry));
+            totalWeight += entry.weight;
+            evict();
+        }
+    }
+
+    private CacheEntry<V> liveEntry(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if(entry == null)
+            return null;
+
+        if(entry.expiration <= clock.getAsLong()) {
+            removed(entries.remove(key));
+            return null;
+        }
+        return entry;
+    }
+
+    // Least recently used first.
+    private void evict() {
+        Iterator<CacheEntry<V>> eldest = entries.values().iterator();
+        while((entries.size() > maxEntries || totalWeight > maxWeight) && eldest.hasNext()) {
+            removed(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private void removed(CacheEntry<V> entry) {
+        if(entry != null)
+            totalWeight -= entry.weight;
+    }
+
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long expiration;
+        private final long weight;
+
+        private CacheEntry(V value, long expiration, long weight) {
+            this.value = value;
+            this.expiration = expiration;
+            this.weight = weight;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.servantscode.commons.db;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -9,30 +10,58 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
+import static java.util.Collections.emptyList;
+
+// Brings the schema up to date on service start up.
+// The upgrade holds a Postgres advisory lock, so when several nodes start together one migrates and the rest wait
+// and then find nothing left to do. doUpgrade() runs first for the existing idempotent checks. Its existence checks
+// are answered from one catalog snapshot instead of a query each. Versioned migrations() then run in order, each once,
+// and are recorded in schema_version with their checksum.
 public abstract class AbstractDBUpgrade extends DBAccess implements ServletContextListener {
     private static final Logger LOG = LogManager.getLogger(AbstractDBUpgrade.class);
 
-    private static final int SETUP_ATTEMPTS = 10;
+    private static final int SETUP_ATTEMPTS = Integer.parseInt(EnvProperty.get("DB_UPGRADE_ATTEMPTS", "10"));
+    private static final long MIN_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    //Shared by every service so upgrades of the same database never overlap.
+    private static final long LOCK_KEY = Long.parseLong(EnvProperty.get("DB_UPGRADE_LOCK_KEY", "7310585"));
+
+    private static final String CATALOG_SQL =
+            "SELECT 't', table_name::text, NULL::text, NULL::text FROM information_schema.tables WHERE table_schema = ANY(current_schemas(false)) " +
+            "UNION ALL SELECT 'c', table_name::text, column_name::text, data_type::text FROM information_schema.columns WHERE table_schema = ANY(current_schemas(false)) " +
+            "UNION ALL SELECT 'k', table_name::text, constraint_name::text, NULL FROM information_schema.table_constraints WHERE table_schema = ANY(current_schemas(false))";
+
+    private Catalog catalog;
 
     //Do this automatically on service start up. Referenced in each services' web.xml.
     public void contextInitialized(ServletContextEvent arg0)
     {
-        boolean databaseUpdated = false;
-
-        LOG.info("Veriyfing database access");
-        for(int attempt=1; attempt<=SETUP_ATTEMPTS && !databaseUpdated; attempt++) {
+        LOG.info("Verifying database access");
+        for(int attempt=1; ; attempt++) {
             try {
-                doUpgrade();
-                databaseUpdated = true;
+                upgrade();
+                return;
+            } catch (IllegalStateException e) {
+                // Migration definitions disagree with the database. Retrying won't help.
+                throw e;
             } catch (Exception e) {
-                if(attempt == SETUP_ATTEMPTS) throw new RuntimeException("Failed to ensure database integrity.", e);
+                if(attempt >= SETUP_ATTEMPTS) throw new RuntimeException("Failed to ensure database integrity.", e);
 
-                LOG.error("Database not available yet. (Retries remaining: " + (SETUP_ATTEMPTS-attempt) + "): " + e.getMessage());
+                long delay = backoff(attempt);
+                LOG.error(String.format("Database not available yet. Retrying in %d msecs. (Retries remaining: %d): %s", delay, SETUP_ATTEMPTS-attempt, e.getMessage()));
                 try {
-                    Thread.sleep(30*1000);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e1) {
                     LOG.error("Database update interrupted: " + e1.getMessage());
+                    Thread.currentThread().interrupt();
                     return;
                 }
                 LOG.info("Retrying database access");
@@ -44,24 +73,26 @@ public abstract class AbstractDBUpgrade extends DBAccess implements ServletConte
 
     public abstract void doUpgrade() throws SQLException;
 
+    // Versioned changes for this service. Versions must be unique and should only ever be appended.
+    protected List<Migration> migrations() { return emptyList(); }
+
+    // Key for this service's rows in schema_version. Override to keep it stable if the class is renamed.
+    protected String migrationModule() { return getClass().getSimpleName(); }
+
     protected boolean tableExists(String tableName) throws SQLException {
-        String sql = String.format("SELECT EXISTS (SELECT 1 FROM information_schema.tables WHERE table_name = '%s')", tableName);
-        return verifyExistence(sql, "Could not verify table existence:" + tableName);
+        return catalog().tables.contains(tableName);
     }
 
     protected boolean columnExists(String tableName, String columnName) throws SQLException {
-        String sql = String.format("SELECT EXISTS (SELECT column_name FROM information_schema.columns WHERE table_name = '%s' and column_name = '%s')", tableName, columnName);
-        return verifyExistence(sql, "Could not verify column existence: " + tableName + "(" + columnName + ")");
+        return catalog().columns.containsKey(tableName + "." + columnName);
     }
 
     protected boolean indexExists(String tableName, String indexName) throws SQLException {
-        String sql = String.format("SELECT EXISTS (SELECT constraint_name FROM information_schema.table_constraints WHERE constraint_name='%s' AND table_name='%s')", indexName, tableName);
-        return verifyExistence(sql, "Could not verify index existence: " + tableName + "(" + indexName + ")");
+        return catalog().constraints.contains(tableName + "." + indexName);
     }
 
     protected boolean columnTypeMatches(String tableName, String columnName, String columnType) throws SQLException {
-        String sql = String.format("SELECT EXISTS (SELECT column_name FROM information_schema.columns WHERE table_name = '%s' and column_name='%s' AND data_type='%s')", tableName, columnName, columnType.toLowerCase());
-        return verifyExistence(sql, "Could not verify column type: " + tableName + "(" + columnName + ") = " + columnType);
+        return columnType.toLowerCase().equals(catalog().columns.get(tableName + "." + columnName));
     }
 
     protected void ensureColumn(String tableName, String columnName, String columnDefinition) throws SQLException {
@@ -80,6 +111,8 @@ public abstract class AbstractDBUpgrade extends DBAccess implements ServletConte
     }
 
     protected boolean runSql(String sql) throws SQLException {
+        //Any statement may change the schema. The next existence check reloads the catalog.
+        catalog = null;
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
@@ -91,15 +124,139 @@ public abstract class AbstractDBUpgrade extends DBAccess implements ServletConte
     }
 
     // ----- Private -----
-    private boolean verifyExistence(String sql, String failureString) throws SQLException {
+    private void upgrade() throws SQLException {
+        long start = System.currentTimeMillis();
+        try (Connection lockConn = newConnection()) {
+            // Transaction scoped so the lock can't outlive a failure on a pooled connection.
+            lockConn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = lockConn.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+                    stmt.setLong(1, LOCK_KEY);
+                    stmt.execute();
+                }
+
+                catalog = null;
+                doUpgrade();
+                applyMigrations();
+            } finally {
+                catalog = null;
+                lockConn.rollback();
+                lockConn.setAutoCommit(true);
+            }
+        }
+        LOG.info(String.format("Database verified in %d msecs.", System.currentTimeMillis() - start));
+    }
+
+    private void applyMigrations() throws SQLException {
+        List<Migration> migrations = sortMigrations(migrations());
+        if(migrations.isEmpty())
+            return;
+
+        if(!tableExists("schema_version"))
+            runSql("CREATE TABLE IF NOT EXISTS schema_version (module TEXT NOT NULL, version INTEGER NOT NULL, description TEXT, " +
+                   "checksum INTEGER NOT NULL, installed_on TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(), execution_ms INTEGER, " +
+                   "PRIMARY KEY (module, version))");
+
+        String module = migrationModule();
+        Map<Integer, Integer> applied = appliedMigrations(module);
+        for(Migration migration: migrations) {
+            Integer checksum = applied.get(migration.getVersion());
+            if(checksum == null)
+                apply(module, migration);
+            else if(checksum != migration.getChecksum())
+                throw new IllegalStateException(String.format("Migration %s v%d (%s) was changed after it was applied.",
+                                                              module, migration.getVersion(), migration.getDescription()));
+        }
+    }
+
+    private Map<Integer, Integer> appliedMigrations(String module) throws SQLException {
+        Map<Integer, Integer> applied = new HashMap<>();
         try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql);
+             PreparedStatement stmt = conn.prepareStatement("SELECT version, checksum FROM schema_version WHERE module=?")) {
+            stmt.setString(1, module);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while(rs.next())
+                    applied.put(rs.getInt(1), rs.getInt(2));
+            }
+        }
+        return applied;
+    }
+
+    private void apply(String module, Migration migration) {
+        LOG.info(String.format("--- Applying migration %s v%d: %s", module, migration.getVersion(), migration.getDescription()));
+        catalog = null;
+        TransactionTemplate.DEFAULT.retries(0).run(conn -> {
+            long start = System.currentTimeMillis();
+            try {
+                migration.apply(conn);
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO schema_version (module, version, description, checksum, execution_ms) VALUES (?, ?, ?, ?, ?)")) {
+                    stmt.setString(1, module);
+                    stmt.setInt(2, migration.getVersion());
+                    stmt.setString(3, migration.getDescription());
+                    stmt.setInt(4, migration.getChecksum());
+                    stmt.setInt(5, (int) (System.currentTimeMillis() - start));
+                    stmt.executeUpdate();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not apply migration: " + module + " v" + migration.getVersion(), e);
+            }
+        });
+    }
+
+    static List<Migration> sortMigrations(List<Migration> migrations) {
+        List<Migration> sorted = new ArrayList<>(migrations);
+        sorted.sort(null);
+        for(int i=1; i<sorted.size(); i++) {
+            if(sorted.get(i).getVersion() == sorted.get(i-1).getVersion())
+                throw new IllegalStateException("Duplicate migration version: " + sorted.get(i).getVersion());
+        }
+        return sorted;
+    }
+
+    private Catalog catalog() throws SQLException {
+        if(catalog == null)
+            catalog = loadCatalog();
+        return catalog;
+    }
+
+    private Catalog loadCatalog() throws SQLException {
+        Catalog loaded = new Catalog();
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(CATALOG_SQL);
              ResultSet rs = stmt.executeQuery()) {
 
-            return rs.next() && rs.getBoolean(1);
+            while(rs.next()) {
+                String table = rs.getString(2);
+                switch (rs.getString(1)) {
+                    case "t":
+                        loaded.tables.add(table);
+                        break;
+                    case "c":
+                        loaded.columns.put(table + "." + rs.getString(3), rs.getString(4));
+                        break;
+                    case "k":
+                        loaded.constraints.add(table + "." + rs.getString(3));
+                        break;
+                }
+            }
         } catch (SQLException e) {
-            LOG.error(failureString, e);
+            LOG.error("Could not read database catalog.", e);
             throw e;
         }
+        return loaded;
+    }
+
+    //Exponential with jitter so nodes that failed together don't all retry together.
+    private static long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt - 1, 10));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static class Catalog {
+        private final Set<String> tables = new HashSet<>();
+        // table.column -> data type
+        private final Map<String, String> columns = new HashMap<>();
+        // table.constraint
+        private final Set<String> constraints = new HashSet<>();
     }
 }
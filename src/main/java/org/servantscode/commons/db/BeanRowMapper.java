@@ -0,0 +1,193 @@
+package org.servantscode.commons.db;
+
+import org.servantscode.commons.ClassMetadata;
+import org.servantscode.commons.ClassMetadata.FieldInfo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static org.servantscode.commons.db.DBAccess.convert;
+
+// Maps rows onto a bean through its setters (see ClassMetadata). Columns match a field by the field map
+// (field -> column, as given to EasyDB for searching), then by the field's name in snake_case, then as is.
+// The column to setter plan is built once per result set shape; mapping a row is then index reads and setter calls.
+// Columns without a matching setter, and setters of types it can't read, are skipped.
+public class BeanRowMapper<T> implements RowMapper<T> {
+    private static final int MAX_PLANS = 64;
+    private static final Pattern COLUMN_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final Class<T> clazz;
+    private final MethodHandle constructor;
+    private final Map<String, FieldInfo> fieldsByColumn;
+    private final Map<ColumnIndex, Plan> plans = new ConcurrentHashMap<>();
+
+    public BeanRowMapper(Class<T> clazz) {
+        this(clazz, Collections.emptyMap());
+    }
+
+    public BeanRowMapper(Class<T> clazz, Map<String, String> fieldMap) {
+        this.clazz = clazz;
+        this.constructor = constructor(clazz);
+
+        Map<String, FieldInfo> byColumn = new HashMap<>();
+        for(FieldInfo field: ClassMetadata.of(clazz).getFields().values()) {
+            if(!field.isWritable() || field.getSetter().getParameterCount() != 1)
+                continue;
+
+            byColumn.putIfAbsent(field.getName(), field);
+            byColumn.putIfAbsent(toSnakeCase(field.getName()), field);
+            String mapped = fieldMap.get(field.getName());
+            if(mapped != null) {
+                //Strip any table alias. Anything else (e.g. an expression) can't name a result column.
+                String column = mapped.substring(mapped.lastIndexOf('.') + 1);
+                if(COLUMN_NAME.matcher(column).matches())
+                    byColumn.put(column, field);
+            }
+        }
+        this.fieldsByColumn = byColumn;
+    }
+
+    @Override
+    public T map(ResultSet rs, ColumnIndex columns) throws SQLException {
+        Plan plan = plans.get(columns);
+        if(plan == null) {
+            plan = new Plan(columns);
+            if(plans.size() < MAX_PLANS)
+                plans.putIfAbsent(columns, plan);
+        }
+        return plan.map(rs);
+    }
+
+    // ----- Private -----
+    @FunctionalInterface
+    private interface ColumnReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+    }
+
+    private class Plan {
+        private final int[] indexes;
+        private final ColumnReader[] readers;
+        private final FieldInfo[] fields;
+
+        private Plan(ColumnIndex columns) {
+            List<Integer> indexes = new ArrayList<>();
+            List<ColumnReader> readers = new ArrayList<>();
+            List<FieldInfo> fields = new ArrayList<>();
+            for(int i=1; i<=columns.getColumnCount(); i++) {
+                FieldInfo field = fieldsByColumn.get(columns.getLabel(i));
+                if(field == null || fields.contains(field))
+                    continue;
+
+                ColumnReader reader = reader(field.getSetter().getParameterTypes()[0]);
+                if(reader == null)
+                    continue;
+
+                indexes.add(i);
+                readers.add(reader);
+                fields.add(field);
+            }
+
+            this.indexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+            this.readers = readers.toArray(new ColumnReader[0]);
+            this.fields = fields.toArray(new FieldInfo[0]);
+        }
+
+        private T map(ResultSet rs) throws SQLException {
+            T bean = newInstance();
+            for(int i=0; i<indexes.length; i++)
+                fields[i].set(bean, readers[i].read(rs, indexes[i]));
+            return bean;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T newInstance() {
+        try {
+            return (T) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new RuntimeException("Could not create " + clazz.getSimpleName(), t);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> clazz) {
+        try {
+            Constructor<?> c = clazz.getDeclaredConstructor();
+            c.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Row mapped classes need a no argument constructor: " + clazz.getName(), e);
+        }
+    }
+
+    //Primitive setters get the driver's default (0, false) for null, as hand written mappers do.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ColumnReader reader(Class<?> type) {
+        if(type == String.class)
+            return ResultSet::getString;
+        if(type == int.class)
+            return ResultSet::getInt;
+        if(type == long.class)
+            return ResultSet::getLong;
+        if(type == double.class)
+            return ResultSet::getDouble;
+        if(type == float.class)
+            return ResultSet::getFloat;
+        if(type == boolean.class)
+            return ResultSet::getBoolean;
+        if(type == Integer.class)
+            return (rs, i) -> nullable(rs, rs.getInt(i));
+        if(type == Long.class)
+            return (rs, i) -> nullable(rs, rs.getLong(i));
+        if(type == Double.class)
+            return (rs, i) -> nullable(rs, rs.getDouble(i));
+        if(type == Float.class)
+            return (rs, i) -> nullable(rs, rs.getFloat(i));
+        if(type == Boolean.class)
+            return (rs, i) -> nullable(rs, rs.getBoolean(i));
+        if(type == BigDecimal.class)
+            return ResultSet::getBigDecimal;
+        if(type == ZonedDateTime.class)
+            return (rs, i) -> convert(rs.getTimestamp(i));
+        if(type == LocalDate.class)
+            return (rs, i) -> convert(rs.getDate(i));
+        if(type == LocalDateTime.class)
+            return (rs, i) -> {
+                Timestamp ts = rs.getTimestamp(i);
+                return ts != null? ts.toLocalDateTime(): null;
+            };
+        if(type.isEnum())
+            return (rs, i) -> DBAccess.parse((Class) type, rs.getString(i));
+        return null;
+    }
+
+    private static Object nullable(ResultSet rs, Object value) throws SQLException {
+        return rs.wasNull()? null: value;
+    }
+
+    private static String toSnakeCase(String name) {
+        StringBuilder column = new StringBuilder(name.length() + 4);
+        for(char c: name.toCharArray()) {
+            if(Character.isUpperCase(c))
+                column.append('_').append(Character.toLowerCase(c));
+            else
+                column.append(c);
+        }
+        return column.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package org.servantscode.commons.db;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+// Column label to index resolution for one result set shape, so rows can be read by index.
+// Resolved once per query template (forQuery) or per result set (of) instead of once per cell.
+// Immutable. Two indexes with the same labels in the same order are equal.
+public class ColumnIndex {
+    // Sql is generated from templates, so this stays small; stop adding rather than evict if it doesn't.
+    private static final int MAX_CACHED_QUERIES = 1024;
+    private static final Map<String, ColumnIndex> QUERIES = new ConcurrentHashMap<>();
+
+    //The most recent resolution, for repeated hasColumn() calls against the same result set.
+    private static volatile Resolved last;
+
+    private final String[] labels;
+    private final Map<String, Integer> indexes;
+    private final Map<String, Integer> lowerIndexes;
+
+    private ColumnIndex(String[] labels) {
+        this.labels = labels;
+        this.indexes = new HashMap<>(labels.length * 2);
+        this.lowerIndexes = new HashMap<>(labels.length * 2);
+        // First occurrence wins, as with ResultSet.findColumn.
+        for(int i=labels.length; i>0; i--) {
+            indexes.put(labels[i-1], i);
+            lowerIndexes.put(labels[i-1].toLowerCase(), i);
+        }
+    }
+
+    public static ColumnIndex of(ResultSet rs) throws SQLException {
+        ResultSetMetaData metadata = rs.getMetaData();
+        Resolved resolved = last;
+        if(resolved != null && resolved.metadata.get() == metadata)
+            return resolved.columns;
+
+        ColumnIndex columns = new ColumnIndex(labels(metadata));
+        last = new Resolved(metadata, columns);
+        return columns;
+    }
+
+    // Reuses the resolution from earlier executions of the same sql. The labels are still checked against the result set
+    // (once per result set, not per cell), so a changed shape (e.g. SELECT * after a schema change) is re-resolved.
+    public static ColumnIndex forQuery(String sql, ResultSet rs) throws SQLException {
+        ResultSetMetaData metadata = rs.getMetaData();
+        ColumnIndex columns = QUERIES.get(sql);
+        if(columns == null || !columns.matches(metadata)) {
+            columns = new ColumnIndex(labels(metadata));
+            if(QUERIES.size() < MAX_CACHED_QUERIES || QUERIES.containsKey(sql))
+                QUERIES.put(sql, columns);
+        }
+        last = new Resolved(metadata, columns);
+        return columns;
+    }
+
+    // 1 based like JDBC; 0 when the column is absent. Falls back to a case insensitive match like ResultSet.findColumn.
+    public int indexOf(String label) {
+        Integer index = indexes.get(label);
+        if(index == null)
+            index = lowerIndexes.get(label.toLowerCase());
+        return index != null? index: 0;
+    }
+
+    public int requireIndex(String label) throws SQLException {
+        int index = indexOf(label);
+        if(index == 0)
+            throw new SQLException("The column name " + label + " was not found in this ResultSet.", "42703");
+        return index;
+    }
+
+    // Exact label match.
+    public boolean hasColumn(String label) {
+        return indexes.containsKey(label);
+    }
+
+    public int getColumnCount() { return labels.length; }
+
+    public List<String> getLabels() { return unmodifiableList(asList(labels)); }
+
+    public String getLabel(int index) { return labels[index - 1]; }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof ColumnIndex && Arrays.equals(labels, ((ColumnIndex) o).labels);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(labels);
+    }
+
+    static void clearCache() {
+        QUERIES.clear();
+        last = null;
+    }
+
+    // ----- Private -----
+    private boolean matches(ResultSetMetaData metadata) throws SQLException {
+        if(labels.length != metadata.getColumnCount())
+            return false;
+        for(int i=0; i<labels.length; i++) {
+            if(!labels[i].equals(metadata.getColumnLabel(i + 1)))
+                return false;
+        }
+        return true;
+    }
+
+    private static String[] labels(ResultSetMetaData metadata) throws SQLException {
+        String[] labels = new String[metadata.getColumnCount()];
+        for(int i=0; i<labels.length; i++)
+            labels[i] = metadata.getColumnLabel(i + 1);
+        return labels;
+    }
+
+    // Weak so a cached entry doesn't keep a closed result set's metadata (and its connection) reachable.
+    private static class Resolved {
+        private final WeakReference<ResultSetMetaData> metadata;
+        private final ColumnIndex columns;
+
+        private Resolved(ResultSetMetaData metadata, ColumnIndex columns) {
+            this.metadata = new WeakReference<>(metadata);
+            this.columns = columns;
+        }
+    }
+}
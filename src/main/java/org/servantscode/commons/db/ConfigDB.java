@@ -2,6 +2,9 @@ package org.servantscode.commons.db;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
+import org.servantscode.commons.cache.ExpiringCache;
+import org.servantscode.commons.search.BatchUpsertBuilder;
 import org.servantscode.commons.search.QueryBuilder;
 import org.servantscode.commons.security.OrganizationContext;
 
@@ -9,61 +12,71 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
+import static java.util.Collections.unmodifiableNavigableMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Reads are served from a per-organization snapshot of the whole configuration table, loaded with one query
+// and kept for CONFIG_CACHE_TTL seconds. Changes made through this class invalidate the snapshot immediately and again
+// once any open transaction completes; other nodes drop it through the InvalidationBus when enabled, and otherwise see
+// the change once it expires.
 public class ConfigDB extends DBAccess {
     private static final Logger LOG = LogManager.getLogger(ConfigDB.class);
 
+    private static final ExpiringCache<Integer, Snapshot> CONFIG_CACHE =
+            new ExpiringCache<>(Integer.parseInt(EnvProperty.get("CONFIG_CACHE_SIZE", "256")),
+                                SECONDS.toMillis(Long.parseLong(EnvProperty.get("CONFIG_CACHE_TTL", "60"))));
+
+    static {
+        InvalidationBus.subscribe(InvalidationBus.CONFIGURATION, event -> {
+            if(event.isAll())
+                clearConfigCache();
+            else
+                invalidate(Integer.parseInt(event.getKey()));
+        });
+    }
+
     public String getConfiguration(String config) {
-        QueryBuilder query = select("value").from("configuration").where("config=?", config).inOrg();
-        try(Connection conn = getConnection();
-            PreparedStatement stmt = query.prepareStatement(conn);
-            ResultSet rs = stmt.executeQuery()) {
+        return snapshot().values.get(config);
+    }
 
-            return rs.next()? rs.getString(1): null;
-        } catch (SQLException e) {
-            throw new RuntimeException("Could not retrieve configuration property: " + config, e);
-        }
+    // The parsed form of a configuration value. Parsed once per snapshot and parser instance, so pass the same parser
+    // (a constant or non-capturing lambda) every time. The parser is also given null when the value is not set.
+    public <T> T getConfiguration(String config, Function<String, T> parser) {
+        return snapshot().parsed(config, parser);
     }
 
     public Map<String, String> getConfigurations(String configPrefix) {
-        QueryBuilder query = selectAll().from("configuration").where("config LIKE ?", configPrefix + "%").inOrg();
-        try(Connection conn = getConnection();
-            PreparedStatement stmt = query.prepareStatement(conn);
-            ResultSet rs = stmt.executeQuery()) {
-
-            Map<String, String> results = new HashMap<>();
-            while(rs.next())
-                results.put(rs.getString("config"), rs.getString("value"));
-            LOG.trace("Retrieved " + results.size() + " properties starting with " + configPrefix);
-            return results;
-        } catch (SQLException e) {
-            throw new RuntimeException("Could not retrieve configuration properties: " + configPrefix, e);
-        }
+        Map<String, String> results = new HashMap<>(snapshot().values.subMap(configPrefix, configPrefix + Character.MAX_VALUE));
+        LOG.trace("Retrieved " + results.size() + " properties starting with " + configPrefix);
+        return results;
     }
 
     public void patchConfigurations(Map<String, String> configs) {
-        try(Connection conn = getConnection();
-            PreparedStatement stmt = conn.prepareStatement("INSERT INTO configuration VALUES(?, ?, ?) " +
-                                                               "ON CONFLICT (config, org_id) DO UPDATE SET VALUE=EXCLUDED.value"))
-        {
-            configs.forEach((config, value) -> {
-                    try {
-                        stmt.setString(1, config);
-                        stmt.setString(2, value);
-                        stmt.setInt(3, OrganizationContext.orgId());
-                        stmt.addBatch();
-                    } catch (SQLException e) {
-                        throw new RuntimeException("Could not patch configuration properties.", e);
-                    }
-                });
+        BatchUpsertBuilder<Map.Entry<String, String>> cmd = new BatchUpsertBuilder<Map.Entry<String, String>>().into("configuration")
+                .valueSource("config", Map.Entry::getKey)
+                .valueSource("value", Map.Entry::getValue)
+                .inOrg()
+                .onConflict("config", "org_id").updateExcluded("value")
+                .addBatches(new ArrayList<>(configs.entrySet()));
 
-            stmt.executeBatch();
+        try(Connection conn = getWriteConnection()) {
+            cmd.execute(conn);
+            InvalidationBus.publish(conn, InvalidationBus.CONFIGURATION, OrganizationContext.orgId());
         } catch (SQLException e) {
             throw new RuntimeException("Could not patch configuration properties.", e);
+        } finally {
+            written(OrganizationContext.orgId());
         }
     }
 
@@ -72,7 +85,7 @@ public class ConfigDB extends DBAccess {
     }
 
     public void deleteConfigurations(Set<String> configs) {
-        try(Connection conn = getConnection();
+        try(Connection conn = getWriteConnection();
             PreparedStatement stmt = conn.prepareStatement("DELETE FROM configuration WHERE config=? AND org_id=?"))
         {
             configs.forEach((config) -> {
@@ -86,8 +99,94 @@ public class ConfigDB extends DBAccess {
             });
 
             stmt.executeBatch();
+            InvalidationBus.publish(conn, InvalidationBus.CONFIGURATION, OrganizationContext.orgId());
         } catch (SQLException e) {
             throw new RuntimeException("Could not patch configuration properties.", e);
+        } finally {
+            written(OrganizationContext.orgId());
+        }
+    }
+
+    // ----- Cache -----
+    public static ExpiringCache<Integer, Snapshot> getConfigCache() { return CONFIG_CACHE; }
+
+    public static void invalidate(int orgId) {
+        CONFIG_CACHE.invalidate(orgId);
+    }
+
+    public static void clearConfigCache() { CONFIG_CACHE.clear(); }
+
+    public static class Snapshot {
+        //Parsers that are new instances on every call would otherwise fill the memo.
+        private static final int MAX_PARSED = 256;
+
+        private final NavigableMap<String, String> values;
+        private final Map<ParsedKey, Optional<Object>> parsedValues = new ConcurrentHashMap<>();
+
+        private Snapshot(NavigableMap<String, String> values) {
+            this.values = unmodifiableNavigableMap(values);
+        }
+
+        public NavigableMap<String, String> getValues() { return values; }
+
+        @SuppressWarnings("unchecked")
+        private <T> T parsed(String config, Function<String, T> parser) {
+            ParsedKey key = new ParsedKey(config, parser);
+            Optional<Object> parsed = parsedValues.get(key);
+            if(parsed == null) {
+                parsed = Optional.ofNullable(parser.apply(values.get(config)));
+                if(parsedValues.size() < MAX_PARSED)
+                    parsedValues.putIfAbsent(key, parsed);
+            }
+            return (T) parsed.orElse(null);
+        }
+    }
+
+    // ----- Private -----
+    private void written(int orgId) {
+        invalidateAfterWrite(() -> invalidate(orgId));
+    }
+
+    // Parsers by identity. Two parsers of the same value may produce different types.
+    private static class ParsedKey {
+        private final String config;
+        private final Function<String, ?> parser;
+
+        private ParsedKey(String config, Function<String, ?> parser) {
+            this.config = config;
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof ParsedKey))
+                return false;
+            ParsedKey other = (ParsedKey) o;
+            return parser == other.parser && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() { return 31 * config.hashCode() + System.identityHashCode(parser); }
+    }
+    private Snapshot snapshot() {
+        return CONFIG_CACHE.get(OrganizationContext.orgId(), orgId -> loadSnapshot());
+    }
+
+    // Always from the primary, so a snapshot taken just after a change can't be stale for its whole lifetime.
+    private Snapshot loadSnapshot() {
+        QueryBuilder query = select("config", "value").from("configuration").inOrg();
+        try(Connection conn = getConnection();
+            PreparedStatement stmt = query.prepareStatement(conn);
+            ResultSet rs = stmt.executeQuery()) {
+
+            NavigableMap<String, String> values = new TreeMap<>();
+            while(rs.next())
+                values.put(rs.getString(1), rs.getString(2));
+            return new Snapshot(values);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not retrieve configuration properties.", e);
         }
     }
 }
@@ -4,38 +4,193 @@ import com.zaxxer.hikari.HikariDataSource;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
 
 import javax.sql.DataSource;
 import java.io.Closeable;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// A primary pool plus optional read replica pools.
+// Replicas are checked every DB_REPLICA_CHECK_INTERVAL seconds. One that fails the check, or lags the primary
+// by more than DB_REPLICA_MAX_LAG seconds, takes no reads until it passes again. With no healthy replica, reads use the primary.
 public abstract class ConnectionFactory implements Closeable {
     private static final Logger LOG = LogManager.getLogger(ConnectionFactory.class);
 
+    public static final String PRIMARY_POOL = "primary";
+
+    private static final double MAX_REPLICA_LAG = Double.parseDouble(EnvProperty.get("DB_REPLICA_MAX_LAG", "10"));
+    private static final long REPLICA_CHECK_INTERVAL = Long.parseLong(EnvProperty.get("DB_REPLICA_CHECK_INTERVAL", "5"));
+
     private DataSource source;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private ScheduledExecutorService healthChecker;
 
     public ConnectionFactory(){
         source = configureSource();
+        DBMetrics.registerPool(PRIMARY_POOL, source);
+
+        configureReplicas().forEach((name, replica) -> {
+            replicas.add(new Replica(name, replica));
+            DBMetrics.registerPool(name, replica);
+        });
+        if(!replicas.isEmpty()) {
+            LOG.info(String.format("Routing reads to %d replica(s).", replicas.size()));
+            startHealthChecks();
+        }
     }
 
     public abstract DataSource configureSource();
 
+    // Read replica sources by name. None by default.
+    public Map<String, DataSource> configureReplicas() {
+        return emptyMap();
+    }
+
+    // Query returning the replica's lag behind the primary in seconds. When null replicas are only checked for liveness.
+    protected String replicaLagQuery() {
+        return null;
+    }
+
     protected Connection getConnection() {
         try {
-            return source.getConnection();
+            return acquire(PRIMARY_POOL, source);
         } catch (SQLException e) {
             throw new RuntimeException("Could not connect to database.", e);
         }
     }
 
+    // Round robin over healthy replicas. A replica that can't hand out a connection is ejected until its next passing check.
+    protected Connection getReadConnection() {
+        int count = replicas.size();
+        if(count == 0)
+            return getConnection();
+
+        int start = Math.floorMod(nextReplica.getAndIncrement(), count);
+        for(int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if(!replica.healthy)
+                continue;
+
+            try {
+                return acquire(replica.name, replica.source);
+            } catch (SQLException e) {
+                LOG.warn("Could not connect to replica " + replica.name + ". Ejecting it.", e);
+                replica.update(false, -1);
+            }
+        }
+        return getConnection();
+    }
+
+    // A connection kept open for LISTEN (see InvalidationBus). From the pool by default, where it permanently takes a slot.
+    protected Connection createListenerConnection() throws SQLException {
+        return source.getConnection();
+    }
+
+    public boolean hasReplicas() { return !replicas.isEmpty(); }
+
+    public List<Replica> getReplicas() { return unmodifiableList(replicas); }
+
     public void close() {
+        SessionDB.stopIpFlusher();
+        InvalidationBus.stop();
+        if(healthChecker != null)
+            healthChecker.shutdownNow();
+        for(Replica replica: replicas)
+            closeSource(replica.source);
+        closeSource(source);
+        deregisterDrivers();
+    }
+
+    public static class Replica {
+        private final String name;
+        private final DataSource source;
+        private volatile boolean healthy = true;
+        private volatile double lagSeconds = 0;
+
+        private Replica(String name, DataSource source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        public String getName() { return name; }
+        public boolean isHealthy() { return healthy; }
+        // -1 when the last check failed.
+        public double getLagSeconds() { return lagSeconds; }
+
+        private void update(boolean healthy, double lagSeconds) {
+            if(this.healthy && !healthy)
+                LOG.warn(String.format("Ejecting replica %s. lag: %.1fs", name, lagSeconds));
+            else if(!this.healthy && healthy)
+                LOG.info(String.format("Replica %s is healthy again. lag: %.1fs", name, lagSeconds));
+
+            this.healthy = healthy;
+            this.lagSeconds = lagSeconds;
+        }
+    }
+
+    // ----- Private -----
+    private static Connection acquire(String pool, DataSource source) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection conn = source.getConnection();
+            DBMetrics.connectionAcquired(pool, System.nanoTime() - start);
+            return conn;
+        } catch (SQLException e) {
+            DBMetrics.connectionFailed(pool);
+            throw e;
+        }
+    }
+
+    private void startHealthChecks() {
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-replica-health");
+            t.setDaemon(true);
+            return t;
+        });
+        healthChecker.scheduleWithFixedDelay(() -> replicas.forEach(this::checkReplica),
+                REPLICA_CHECK_INTERVAL, REPLICA_CHECK_INTERVAL, SECONDS);
+    }
+
+    private void checkReplica(Replica replica) {
+        String lagQuery = replicaLagQuery();
+        try (Connection conn = replica.source.getConnection()) {
+            if(lagQuery == null) {
+                replica.update(conn.isValid((int) REPLICA_CHECK_INTERVAL), 0);
+                return;
+            }
+
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(lagQuery)) {
+                double lag = rs.next()? rs.getDouble(1): 0;
+                replica.update(lag <= MAX_REPLICA_LAG, lag);
+            }
+        } catch (SQLException | RuntimeException e) {
+            if(replica.healthy)
+                LOG.warn("Health check failed for replica " + replica.name + ".", e);
+            replica.update(false, -1);
+        }
+    }
+
+    private void closeSource(DataSource source) {
         if(source != null && source instanceof HikariDataSource)
             ((HikariDataSource)source).close();
-        deregisterDrivers();
     }
 
     private void deregisterDrivers() {
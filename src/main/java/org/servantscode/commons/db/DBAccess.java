@@ -10,16 +10,19 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.servantscode.commons.StringUtils.isEmpty;
 import static org.servantscode.commons.db.DBAccess.DBType.POSTGRES;
 import static org.servantscode.commons.db.DBAccess.DBType.valueOf;
@@ -32,7 +35,9 @@ public class DBAccess {
     protected static boolean logSql = false;
     protected void setLogSql(boolean logSql) { EasyDB.logSql = logSql; }
 
-    private static ConnectionFactory factory;
+    private static volatile ConnectionFactory factory;
+    //A lock rather than synchronized: pool start up does network I/O, which would pin a virtual thread to its carrier.
+    private static final ReentrantLock FACTORY_LOCK = new ReentrantLock();
 
     public static ConnectionFactory getConnectionFactory() { return factory; }
     public static void setConnectionFactory(ConnectionFactory f) {
@@ -41,19 +46,80 @@ public class DBAccess {
 
     private TransactionConnection transactionalConnection = null;
 
+    // A primary connection, or the open transaction's. Writes made through it directly must call
+    // ReplicaRouting.pinToPrimary(), or use getWriteConnection(), so the request's later reads see them.
     protected Connection getConnection() {
-        if(factory == null)
-            defaultFactory();
+        Connection bound = TransactionTemplate.boundConnection();
+        if(bound != null)
+            return bound;
 
         if(transactionalConnection != null) {
             transactionalConnection.addRef();
             return transactionalConnection;
         }
+        return newConnection();
+    }
+
+    // For raw JDBC writes. Pins this request to the primary, as runUpdate does, so its later reads can't miss the write.
+    protected Connection getWriteConnection() {
+        ReplicaRouting.pinToPrimary();
+        return getConnection();
+    }
+
+    // For reads that a replica may serve. Stays on the primary inside a transaction or once this request has written.
+    protected Connection getReadConnection() {
+        if(inTransaction() || ReplicaRouting.isPinned())
+            return getConnection();
+
+        if(factory == null)
+            defaultFactory();
+
+        return factory.getReadConnection();
+    }
+
+    static Connection newConnection() {
+        if(factory == null)
+            defaultFactory();
+
         return factory.getConnection();
     }
 
+    static Connection newListenerConnection() throws SQLException {
+        if(factory == null)
+            defaultFactory();
+
+        return factory.createListenerConnection();
+    }
+
+    protected boolean inTransaction() {
+        return transactionalConnection != null || TransactionTemplate.isActive();
+    }
+
+    // Runs the action once the open transaction commits or rolls back, or right away outside of one.
+    protected void afterCompletion(Runnable action) {
+        if(transactionalConnection != null && !TransactionTemplate.isActive())
+            transactionalConnection.afterCompletion.add(action);
+        else
+            TransactionTemplate.afterCompletion(action);
+    }
+
+    // For caches of written rows. A load before the write commits reads the old rows, so invalidate now and again once
+    // any open transaction completes.
+    protected void invalidateAfterWrite(Runnable invalidation) {
+        invalidation.run();
+        if(inTransaction())
+            afterCompletion(invalidation);
+    }
+
+    // Runs work in a transaction bound to the calling context. See TransactionTemplate for options.
+    protected <R> R inTransaction(Function<Connection, R> work) {
+        return TransactionTemplate.DEFAULT.execute(work);
+    }
+
+    // Bound to this instance, so the DAO can't be shared across threads. Use inTransaction(work) instead.
+    @Deprecated
     protected Connection startTransaction() throws SQLException {
-        if(transactionalConnection != null)
+        if(transactionalConnection != null || TransactionTemplate.isActive())
             throw new IllegalStateException("Transaction is already open.");
 
         transactionalConnection = new TransactionConnection(getConnection());
@@ -62,41 +128,59 @@ public class DBAccess {
         return transactionalConnection;
     }
 
-    private static synchronized void defaultFactory() {
-        if(factory == null) {
-            DBType type = valueOf(EnvProperty.get("DB_TYPE", POSTGRES.toString()));
-            switch(type) {
-                case POSTGRES:
-                    factory = new PostgresConnectionFactory();
-                    break;
-                default:
-                    throw new RuntimeException("Unknown database type encountered.");
+    private static void defaultFactory() {
+        FACTORY_LOCK.lock();
+        try {
+            if(factory == null) {
+                DBType type = valueOf(EnvProperty.get("DB_TYPE", POSTGRES.toString()));
+                switch(type) {
+                    case POSTGRES:
+                        factory = new PostgresConnectionFactory();
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown database type encountered.");
+                }
             }
+        } finally {
+            FACTORY_LOCK.unlock();
         }
     }
 
     protected int runUpdate(SqlBuilder cmd, PreparedStatement stmt) throws SQLException {
-        if(logSql) LOG.trace("Executing: " + cmd.getSql());
-        long start = System.currentTimeMillis();
-        int changes = stmt.executeUpdate();
-        long rt = System.currentTimeMillis() - start;
-        if (logSql)
-            LOG.trace("Completed in : " + rt + " msecs.");
-        else if (rt > 999)
-            LOG.trace("Executed: " + cmd.getSql() + " in " + rt + " msecs.");
+        String sql = cmd.getSql();
+        if(logSql) LOG.trace("Executing: " + sql);
+        ReplicaRouting.pinToPrimary();
+        long start = System.nanoTime();
+        int changes;
+        try {
+            changes = stmt.executeUpdate();
+        } catch (SQLException e) {
+            DBMetrics.failed(sql);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+        DBMetrics.updateExecuted(sql, elapsed, changes);
+        SlowQueryLog.record(cmd, elapsed);
+        QueryCache.written(stmt.getConnection(), sql, this::afterCompletion);
+        if(logSql) LOG.trace("Completed in : " + NANOSECONDS.toMillis(elapsed) + " msecs.");
         return changes;
     }
 
     protected ResultSet runQuery(QueryBuilder query, PreparedStatement stmt) throws SQLException {
-        if(logSql) LOG.trace("Executing: " + query.getSql());
-        long start = System.currentTimeMillis();
-        ResultSet rs = stmt.executeQuery();
-        long rt = System.currentTimeMillis() - start;
-        if (logSql)
-            LOG.trace("Completed in : " + rt + " msecs.");
-        else if (rt > 999)
-            LOG.trace("Executed: " + query.getSql() + " in " + rt + " msecs.");
-
+        String sql = query.getSql();
+        if(logSql) LOG.trace("Executing: " + sql);
+        long start = System.nanoTime();
+        ResultSet rs;
+        try {
+            rs = stmt.executeQuery();
+        } catch (SQLException e) {
+            DBMetrics.failed(sql);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+        DBMetrics.queryExecuted(sql, elapsed);
+        SlowQueryLog.record(query, elapsed);
+        if(logSql) LOG.trace("Completed in : " + NANOSECONDS.toMillis(elapsed) + " msecs.");
         return rs;
     }
 
@@ -179,6 +263,7 @@ public class DBAccess {
     private class TransactionConnection implements Connection {
         private final Connection ic;
         AtomicInteger refCount = new AtomicInteger(1);
+        private final List<Runnable> afterCompletion = new ArrayList<>(1);
 
         private TransactionConnection(Connection ic) {this.ic = ic;}
 
@@ -189,8 +274,25 @@ public class DBAccess {
         @Override
         public void close() throws SQLException {
             if(refCount.decrementAndGet() == 0) {
-                ic.close();
-                transactionalConnection = null;
+                try {
+                    ic.close();
+                } finally {
+                    transactionalConnection = null;
+                    completed();
+                }
+            }
+        }
+
+        // After commit, rollback, or the last close. Writes after a commit register again.
+        private void completed() {
+            List<Runnable> actions = new ArrayList<>(afterCompletion);
+            afterCompletion.clear();
+            for(Runnable action: actions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Transaction completion action failed.", e);
+                }
             }
         }
 
@@ -227,11 +329,13 @@ public class DBAccess {
         @Override
         public void commit() throws SQLException {
             ic.commit();
+            completed();
         }
 
         @Override
         public void rollback() throws SQLException {
             ic.rollback();
+            completed();
         }
 
         @Override
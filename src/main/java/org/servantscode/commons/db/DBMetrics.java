@@ -0,0 +1,86 @@
+package org.servantscode.commons.db;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.servantscode.commons.metrics.Metrics;
+
+import javax.sql.DataSource;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+// Names and helpers for the database metrics. Query metrics are keyed by Metrics.shape(sql); pool metrics by pool name.
+public class DBMetrics {
+    public static final String QUERY_TIME = "db.query.time";
+    public static final String QUERY_ROWS = "db.query.rows";
+    public static final String UPDATE_TIME = "db.update.time";
+    public static final String UPDATE_ROWS = "db.update.rows";
+    public static final String ERRORS = "db.errors";
+    public static final String CONNECTION_ACQUIRE_TIME = "db.connection.acquire.time";
+    public static final String CONNECTION_ERRORS = "db.connection.errors";
+    public static final String POOL_ACTIVE = "db.pool.active";
+    public static final String POOL_IDLE = "db.pool.idle";
+    public static final String POOL_TOTAL = "db.pool.total";
+    public static final String POOL_WAITING = "db.pool.waiting";
+    public static final String RESULT_CACHE_HITS = "db.result_cache.hits";
+    public static final String RESULT_CACHE_MISSES = "db.result_cache.misses";
+    public static final String RESULT_CACHE_SIZE = "db.result_cache.size";
+
+    public static void queryExecuted(String sql, long nanos) {
+        Metrics.get().recordTime(QUERY_TIME, Metrics.shape(sql), nanos);
+    }
+
+    public static void rowsRead(String sql, int rows) {
+        Metrics.get().recordValue(QUERY_ROWS, Metrics.shape(sql), rows);
+    }
+
+    public static void updateExecuted(String sql, long nanos, int rows) {
+        String shape = Metrics.shape(sql);
+        Metrics.get().recordTime(UPDATE_TIME, shape, nanos);
+        Metrics.get().recordValue(UPDATE_ROWS, shape, rows);
+    }
+
+    public static void failed(String sql) {
+        Metrics.get().increment(ERRORS, Metrics.shape(sql));
+    }
+
+    public static void connectionAcquired(String pool, long nanos) {
+        Metrics.get().recordTime(CONNECTION_ACQUIRE_TIME, pool, nanos);
+    }
+
+    public static void connectionFailed(String pool) {
+        Metrics.get().increment(CONNECTION_ERRORS, pool);
+    }
+
+    // Result cache metrics are keyed by DAO.
+    public static void resultCacheHit(String cache) {
+        Metrics.get().increment(RESULT_CACHE_HITS, cache);
+    }
+
+    public static void resultCacheMiss(String cache) {
+        Metrics.get().increment(RESULT_CACHE_MISSES, cache);
+    }
+
+    public static void registerResultCache(String cache, Supplier<Number> size) {
+        Metrics.get().gauge(RESULT_CACHE_SIZE, cache, size);
+    }
+
+    // Only Hikari pools report gauges. The pool's MXBean exists once the pool has started.
+    public static void registerPool(String pool, DataSource source) {
+        if(!(source instanceof HikariDataSource))
+            return;
+
+        HikariDataSource hikari = (HikariDataSource) source;
+        registerPoolGauge(POOL_ACTIVE, pool, hikari, HikariPoolMXBean::getActiveConnections);
+        registerPoolGauge(POOL_IDLE, pool, hikari, HikariPoolMXBean::getIdleConnections);
+        registerPoolGauge(POOL_TOTAL, pool, hikari, HikariPoolMXBean::getTotalConnections);
+        registerPoolGauge(POOL_WAITING, pool, hikari, HikariPoolMXBean::getThreadsAwaitingConnection);
+    }
+
+    // ----- Private -----
+    private static void registerPoolGauge(String name, String pool, HikariDataSource source, ToIntFunction<HikariPoolMXBean> value) {
+        Metrics.get().gauge(name, pool, () -> {
+            HikariPoolMXBean bean = source.getHikariPoolMXBean();
+            return bean != null? value.applyAsInt(bean): 0;
+        });
+    }
+}
@@ -2,28 +2,87 @@ package org.servantscode.commons.db;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
+import org.servantscode.commons.rest.PaginatedResponse;
 import org.servantscode.commons.search.*;
+import org.servantscode.commons.security.ContextExecutors;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public abstract class EasyDB<T> extends DBAccess {
     private static final Logger LOG = LogManager.getLogger(EasyDB.class);
 
+    protected static final int DEFAULT_FETCH_SIZE = 500;
+
+    // How getPage() determines the total result count.
+    //  PARALLEL: Exact count(1) query run concurrently with the page query.
+    //  WINDOW:   Single query. count(*) OVER() is added to the selections. Not accurate with DISTINCT.
+    //  ESTIMATE: Planner row estimate from EXPLAIN. Falls back to PARALLEL when the estimate is small.
+    public enum CountMode {PARALLEL, WINDOW, ESTIMATE};
+
+    private static final String WINDOW_COUNT_COLUMN = "sc_total_results";
+    private static final Pattern EXPLAIN_ROWS = Pattern.compile("rows=(\\d+)");
+    private static final int ESTIMATE_THRESHOLD = Integer.parseInt(EnvProperty.get("DB_COUNT_ESTIMATE_THRESHOLD", "100000"));
+
+    //Bounded. When saturated, counts run on the calling thread before the page query.
+    private static final int PAGE_THREADS = Integer.parseInt(EnvProperty.get("DB_PAGE_THREADS", "8"));
+    private static final ExecutorService PAGE_EXECUTOR = createPageExecutor();
+
+    //Async calls each hold a connection while they run, so there is no point in more threads than the pool has connections.
+    //When the queue is full, the returned future fails with RejectedExecutionException rather than blocking the caller.
+    private static final int ASYNC_THREADS = Integer.parseInt(EnvProperty.get("DB_ASYNC_THREADS", EnvProperty.get("DB_POOL_SIZE", "10")));
+    private static final int ASYNC_QUEUE_SIZE = Integer.parseInt(EnvProperty.get("DB_ASYNC_QUEUE_SIZE", Integer.toString(ASYNC_THREADS * 16)));
+    //DB_ASYNC_VIRTUAL_THREADS=true runs async calls on virtual threads when the JVM has them (Java 21+).
+    //The connection pool then does the bounding: callers wait up to the pool's connection timeout.
+    private static final boolean ASYNC_VIRTUAL_THREADS = Boolean.parseBoolean(EnvProperty.get("DB_ASYNC_VIRTUAL_THREADS", "false"));
+    private static final ExecutorService ASYNC_EXECUTOR = createAsyncExecutor();
+
     protected SearchParser<T> searchParser;
+    private final Class<T> rowType;
+    private RowMapper<T> rowMapper;
+    private QueryCache resultCache;
+    private UnaryOperator<T> rowCopier;
 
     public EasyDB(Class<T> clazz, String defaultField)  {
         this(clazz, defaultField, Collections.emptyMap());
     }
 
     public EasyDB(Class<T> clazz, String defaultField, Map<String, String> fieldMap)  {
+        this.rowType = clazz;
         this.searchParser = new SearchParser<>(clazz, defaultField, fieldMap);
     }
 
     public EasyDB(Class<T> clazz, String defaultField, FieldTransformer transformer)  {
+        this.rowType = clazz;
         this.searchParser = new SearchParser<>(clazz, defaultField, transformer);
     }
 
@@ -34,18 +93,29 @@ public abstract class EasyDB<T> extends DBAccess {
     protected UpdateBuilder update(String table) { return super.update(table).setSearchParser(searchParser); }
     protected DeleteBuilder deleteFrom(String table) { return super.deleteFrom(table).setSearchParser(searchParser); }
 
-    protected int getCount(QueryBuilder query) {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = query.prepareStatement(conn);
-             ResultSet rs = runQuery(query, stmt)) {
+    // Maps rows without a processRow implementation, e.g. setRowMapper(new BeanRowMapper<>(Person.class, FIELD_MAP)).
+    protected void setRowMapper(RowMapper<T> rowMapper) { this.rowMapper = rowMapper; }
+
+    // Caches get, getOne, getCount, existsAny and getPage results for this DAO class (see QueryCache).
+    // Writes through any DAO to a table a cached query reads invalidate it. Tag any other tables the reads depend on,
+    // such as those behind a view. Only for immutable row types (strings, numbers, enums, java.time); others need a copier.
+    protected void enableResultCache(long ttlSeconds, String... tables) {
+        if(!isImmutable(rowType))
+            throw new IllegalStateException(getClass().getSimpleName() + " rows of type " + rowType.getSimpleName() +
+                                            " can be modified. Pass a row copier to enableResultCache.");
+        enableResultCache(ttlSeconds, UnaryOperator.identity(), tables);
+    }
 
-            if (rs.next())
-                return rs.getInt(1);
-        } catch (SQLException e) {
-            LOG.error("SQL failed: " + query.getSql());
-            throw new RuntimeException("Could not retrieve item count.", e);
-        }
-        return 0;
+    // Every caller gets rows made by the copier (e.g. Person::new for a copy constructor), so it is free to modify them.
+    protected void enableResultCache(long ttlSeconds, UnaryOperator<T> copier, String... tables) {
+        this.rowCopier = copier;
+        this.resultCache = QueryCache.forDao(getClass(), ttlSeconds, tables);
+    }
+
+    protected int getCount(QueryBuilder query) {
+        if(useResultCache())
+            return resultCache.get(query, () -> readCount(query, true), count -> 1);
+        return readCount(query, false);
     }
 
     protected List<T> get(QueryBuilder query) {
@@ -58,15 +128,9 @@ public abstract class EasyDB<T> extends DBAccess {
 
     //Requires a count search
     protected boolean existsAny(QueryBuilder query) {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = query.prepareStatement(conn);
-             ResultSet rs = runQuery(query, stmt)) {
-
-            return rs.next() && rs.getInt(1) > 0;
-        } catch (SQLException e) {
-            LOG.error("SQL failed: " + query.getSql());
-            throw new RuntimeException("Could not determine data existence.", e);
-        }
+        if(useResultCache())
+            return resultCache.get(query, () -> readExistsAny(query, true), exists -> 1);
+        return readExistsAny(query, false);
     }
 
     protected boolean create(InsertBuilder cmd) {
@@ -118,6 +182,40 @@ public abstract class EasyDB<T> extends DBAccess {
         }
     }
 
+    // Returns the row as stored, including defaults and trigger changes, without a re-read.
+    protected T createAndReturn(InsertBuilder cmd) {
+        if(!cmd.hasReturning())
+            cmd.returning("*");
+        return firstOrNull(runReturning(cmd, "Could not create record."));
+    }
+
+    // Inserts every batch using the builder's mode. Runs in its own transaction unless one is already open.
+    protected int createAll(BatchInsertBuilder<?> cmd) {
+        return runBatch(cmd, cmd::execute, "Batch insert failed. mode: " + cmd.getMode(), "Could not create records.");
+    }
+
+    protected boolean upsert(UpsertBuilder cmd) {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = cmd.prepareStatement(conn)) {
+
+            return runUpdate(cmd, stmt) > 0;
+        } catch (SQLException e) {
+            LOG.error("SQL failed: " + cmd.getSql());
+            throw new RuntimeException("Could not upsert record.", e);
+        }
+    }
+
+    // Returns the inserted or updated row, or null when the conflict was resolved with DO NOTHING.
+    protected T upsertAndReturn(UpsertBuilder cmd) {
+        if(!cmd.hasReturning())
+            cmd.returning("*");
+        return firstOrNull(runReturning(cmd, "Could not upsert record."));
+    }
+
+    protected int upsertAll(BatchUpsertBuilder<?> cmd) {
+        return runBatch(cmd, cmd::execute, "Batch upsert failed. mode: " + cmd.getMode(), "Could not upsert records.");
+    }
+
     protected boolean update(UpdateBuilder cmd) {
         try (Connection conn = getConnection();
              PreparedStatement stmt = cmd.prepareStatement(conn)) {
@@ -129,6 +227,12 @@ public abstract class EasyDB<T> extends DBAccess {
         }
     }
 
+    protected List<T> updateAndReturn(UpdateBuilder cmd) {
+        if(!cmd.hasReturning())
+            cmd.returning("*");
+        return runReturning(cmd, "Could not update record.");
+    }
+
     protected boolean delete(DeleteBuilder cmd) {
         if(logSql) LOG.trace("Executing: " + cmd.getSql());
         try (Connection conn = getConnection();
@@ -141,6 +245,12 @@ public abstract class EasyDB<T> extends DBAccess {
         }
     }
 
+    protected List<T> deleteAndReturn(DeleteBuilder cmd) {
+        if(!cmd.hasReturning())
+            cmd.returning("*");
+        return runReturning(cmd, "Could not delete record.");
+    }
+
     protected boolean executeUpdate(SqlBuilder cmd) {
         if(logSql) LOG.trace("Executing: " + cmd.getSql());
         try (Connection conn = getConnection();
@@ -154,13 +264,241 @@ public abstract class EasyDB<T> extends DBAccess {
     }
 
     protected List<T> processResults(QueryBuilder query) {
-        try ( Connection conn = getConnection();
+        if(useResultCache())
+            return copyRows(resultCache.get(query, () -> Collections.unmodifiableList(readResults(query, true)), List::size));
+        return readResults(query, false);
+    }
+
+    // Streams rows through processRow one at a time instead of materializing the full result.
+    // Postgres only uses a server side cursor (honoring fetchSize) when autocommit is off.
+    // The stream holds a connection open until it is closed, so always use it in a try-with-resources.
+    protected Stream<T> stream(QueryBuilder query) {
+        return stream(query, DEFAULT_FETCH_SIZE);
+    }
+
+    protected Stream<T> stream(QueryBuilder query, int fetchSize) {
+        Connection conn = getReadConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        ColumnIndex columns;
+        boolean autoCommit = true;
+        try {
+            autoCommit = conn.getAutoCommit();
+            if(autoCommit)
+                conn.setAutoCommit(false);
+
+            stmt = query.prepareStatement(conn);
+            stmt.setFetchSize(fetchSize);
+            rs = runQuery(query, stmt);
+            columns = ColumnIndex.forQuery(query.getSql(), rs);
+        } catch (SQLException | RuntimeException e) {
+            closeStream(query, conn, stmt, rs, autoCommit);
+            LOG.error("SQL failed: " + query.getSql());
+            throw new RuntimeException("Could not retrieve items.", e);
+        }
+
+        ResultSet results = rs;
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if(!results.next())
+                        return false;
+
+                    action.accept(processRow(results, columns));
+                    return true;
+                } catch (SQLException e) {
+                    LOG.error("SQL failed: " + query.getSql());
+                    throw new RuntimeException("Could not retrieve items.", e);
+                }
+            }
+        };
+
+        PreparedStatement statement = stmt;
+        boolean restoreAutoCommit = autoCommit;
+        return StreamSupport.stream(rows, false)
+                .onClose(() -> closeStream(query, conn, statement, results, restoreAutoCommit));
+    }
+
+    protected void forEach(QueryBuilder query, Consumer<T> action) {
+        forEach(query, DEFAULT_FETCH_SIZE, action);
+    }
+
+    protected void forEach(QueryBuilder query, int fetchSize, Consumer<T> action) {
+        try (Stream<T> rows = stream(query, fetchSize)) {
+            rows.forEach(action);
+        }
+    }
+
+    // Pagination helpers. The filter adds the FROM, joins and WHERE clauses shared by the page and count queries:
+    //   getPage(q -> q.from("person").search(search).inOrg(), sort, start, count)
+    protected PaginatedResponse<T> getPage(Function<QueryBuilder, QueryBuilder> filter, String sort, int start, int count) {
+        return getPage(filter, singletonList("*"), sort, start, count, CountMode.PARALLEL);
+    }
+
+    protected PaginatedResponse<T> getPage(Function<QueryBuilder, QueryBuilder> filter, String sort, int start, int count, CountMode mode) {
+        return getPage(filter, singletonList("*"), sort, start, count, mode);
+    }
+
+    protected PaginatedResponse<T> getPage(Function<QueryBuilder, QueryBuilder> filter, List<String> fields,
+                                           String sort, int start, int count, CountMode mode) {
+        switch (mode) {
+            case WINDOW:
+                return getWindowedPage(filter, fields, sort, start, count);
+            case ESTIMATE:
+                int estimate = estimateCount(filter.apply(select(fields)));
+                if(estimate >= ESTIMATE_THRESHOLD) {
+                    List<T> results = get(filter.apply(select(fields)).page(sort, start, count));
+                    return new PaginatedResponse<>(start, results.size(), estimate, results);
+                }
+                //Small enough to count exactly.
+            default:
+                return getParallelPage(filter, fields, sort, start, count);
+        }
+    }
+
+    // Uses the planner's row estimate for the top level plan node. No rows are read.
+    protected int estimateCount(QueryBuilder query) {
+        QueryBuilder explain = query.explain();
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = explain.prepareStatement(conn);
+             ResultSet rs = runQuery(explain, stmt)) {
+
+            if(rs.next()) {
+                Matcher matcher = EXPLAIN_ROWS.matcher(rs.getString(1));
+                if(matcher.find())
+                    return (int) Math.min(Long.parseLong(matcher.group(1)), Integer.MAX_VALUE);
+            }
+            return 0;
+        } catch (SQLException e) {
+            LOG.error("SQL failed: " + explain.getSql());
+            throw new RuntimeException("Could not estimate item count.", e);
+        }
+    }
+
+    // ----- Async -----
+    // Runs on the db executor under the caller's organization, permissions and log context.
+    // Inside an open transaction the work runs immediately on the calling thread, since the transaction's connection is not shareable.
+    protected <R> CompletableFuture<R> async(Supplier<R> work) {
+        if(inTransaction()) {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(ContextExecutors.wrap(ReplicaRouting.wrap(work)), ASYNC_EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("DB executor saturated. Rejecting async call.");
+            CompletableFuture<R> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    // For work that writes. The pin set on the worker ends with the work, so the calling request is pinned to the
+    // primary up front; its later reads then can't miss the write on a lagging replica.
+    protected <R> CompletableFuture<R> asyncWrite(Supplier<R> work) {
+        ReplicaRouting.pinToPrimary();
+        return async(work);
+    }
+
+    protected CompletableFuture<List<T>> getAsync(QueryBuilder query) { return async(() -> get(query)); }
+    protected CompletableFuture<T> getOneAsync(QueryBuilder query) { return async(() -> getOne(query)); }
+    protected CompletableFuture<Integer> getCountAsync(QueryBuilder query) { return async(() -> getCount(query)); }
+    protected CompletableFuture<Boolean> createAsync(InsertBuilder cmd) { return asyncWrite(() -> create(cmd)); }
+    protected CompletableFuture<Boolean> updateAsync(UpdateBuilder cmd) { return asyncWrite(() -> update(cmd)); }
+    protected CompletableFuture<Boolean> deleteAsync(DeleteBuilder cmd) { return asyncWrite(() -> delete(cmd)); }
+
+    // Implement this, or set a RowMapper.
+    protected T processRow(ResultSet r) throws SQLException {
+        if(rowMapper == null)
+            throw new IllegalStateException(getClass().getSimpleName() + " has neither a processRow implementation nor a RowMapper.");
+        return rowMapper.map(r, ColumnIndex.of(r));
+    }
+
+    // What the query methods call, with the column index already resolved for the result set.
+    // Override to read by index; the default goes to the RowMapper, else processRow(ResultSet).
+    protected T processRow(ResultSet r, ColumnIndex columns) throws SQLException {
+        return rowMapper != null? rowMapper.map(r, columns): processRow(r);
+    }
+
+    protected Search parse(String search) {
+        return searchParser.parse(search);
+    }
+
+    protected String translate(String sort) {
+        return searchParser.translateSort(sort);
+    }
+
+    // Answered from the result set's column index, resolved once rather than scanned on each call.
+    protected boolean hasColumn(ResultSet rs, String columnName) throws SQLException {
+        return ColumnIndex.of(rs).hasColumn(columnName);
+    }
+
+    // ----- Private -----
+    private static boolean isImmutable(Class<?> type) {
+        return type == String.class || type == Integer.class || type == Long.class || type == Short.class ||
+               type == Byte.class || type == Double.class || type == Float.class || type == Boolean.class ||
+               type == Character.class || type == BigDecimal.class || type == BigInteger.class || type == UUID.class ||
+               type.isEnum() || type.getName().startsWith("java.time.");
+    }
+
+    // The cached rows stay as loaded; each caller gets its own list and rows.
+    private List<T> copyRows(List<T> cached) {
+        List<T> rows = new ArrayList<>(cached.size());
+        for(T row: cached)
+            rows.add(row != null? rowCopier.apply(row): null);
+        return rows;
+    }
+
+    private boolean useResultCache() {
+        //An open transaction may see its own uncommitted writes.
+        return resultCache != null && QueryCache.isEnabled() && !inTransaction();
+    }
+
+    private int readCount(QueryBuilder query, boolean primary) {
+        try (Connection conn = primary? getConnection(): getReadConnection();
+             PreparedStatement stmt = query.prepareStatement(conn);
+             ResultSet rs = runQuery(query, stmt)) {
+
+            if (rs.next())
+                return rs.getInt(1);
+        } catch (SQLException e) {
+            LOG.error("SQL failed: " + query.getSql());
+            throw new RuntimeException("Could not retrieve item count.", e);
+        }
+        return 0;
+    }
+
+    private boolean readExistsAny(QueryBuilder query, boolean primary) {
+        try (Connection conn = primary? getConnection(): getReadConnection();
+             PreparedStatement stmt = query.prepareStatement(conn);
+             ResultSet rs = runQuery(query, stmt)) {
+
+            return rs.next() && rs.getInt(1) > 0;
+        } catch (SQLException e) {
+            LOG.error("SQL failed: " + query.getSql());
+            throw new RuntimeException("Could not determine data existence.", e);
+        }
+    }
+
+    //Results headed for the cache are read from the primary. A lagging replica could otherwise cache data older
+    //than a write that has already invalidated it.
+    private List<T> readResults(QueryBuilder query, boolean primary) {
+        try ( Connection conn = primary? getConnection(): getReadConnection();
               PreparedStatement stmt = query.prepareStatement(conn);
               ResultSet rs = runQuery(query, stmt)) {
 
+            ColumnIndex columns = ColumnIndex.forQuery(query.getSql(), rs);
             List<T> sessions = new LinkedList<>();
             while (rs.next())
-                sessions.add(processRow(rs));
+                sessions.add(processRow(rs, columns));
+            DBMetrics.rowsRead(query.getSql(), sessions.size());
             return sessions;
         } catch (SQLException e) {
             LOG.error("SQL failed: " + query.getSql());
@@ -168,26 +506,184 @@ public abstract class EasyDB<T> extends DBAccess {
         }
     }
 
-    protected abstract T processRow(ResultSet r) throws SQLException;
+    // Runs a data modifying command with a RETURNING clause and maps the returned rows.
+    private List<T> runReturning(SqlBuilder cmd, String failureMessage) {
+        if(logSql) LOG.trace("Executing: " + cmd.getSql());
+        ReplicaRouting.pinToPrimary();
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = cmd.prepareStatement(conn)) {
 
-    protected Search parse(String search) {
-        return searchParser.parse(search);
+            //Timed through reading the returned rows; the statement is not done until then.
+            long start = System.nanoTime();
+            List<T> results = new LinkedList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                ColumnIndex columns = ColumnIndex.forQuery(cmd.getSql(), rs);
+                while (rs.next())
+                    results.add(processRow(rs, columns));
+            }
+            long elapsed = System.nanoTime() - start;
+            DBMetrics.updateExecuted(cmd.getSql(), elapsed, results.size());
+            SlowQueryLog.record(cmd, elapsed);
+            QueryCache.written(conn, cmd.getSql(), this::afterCompletion);
+            return results;
+        } catch (SQLException e) {
+            DBMetrics.failed(cmd.getSql());
+            LOG.error("SQL failed: " + cmd.getSql());
+            throw new RuntimeException(failureMessage, e);
+        }
     }
 
-    protected String translate(String sort) {
-        return searchParser.translateSort(sort);
+    // Runs a batch write in its own transaction unless one is already open. Timed like runUpdate, around the batch only.
+    private int runBatch(SqlBuilder cmd, BatchWork work, String failureLog, String failureMessage) {
+        String sql = cmd.getSql();
+        if(logSql) LOG.trace("Executing: " + sql);
+        try (Connection conn = getConnection()) {
+            boolean ownTransaction = conn.getAutoCommit();
+            if(ownTransaction)
+                conn.setAutoCommit(false);
+            ReplicaRouting.pinToPrimary();
+            try {
+                long start = System.nanoTime();
+                int rows = work.execute(conn);
+                long elapsed = System.nanoTime() - start;
+                if(ownTransaction)
+                    conn.commit();
+                DBMetrics.updateExecuted(sql, elapsed, rows);
+                SlowQueryLog.record(cmd, elapsed);
+                QueryCache.written(conn, sql, this::afterCompletion);
+                return rows;
+            } catch (SQLException | RuntimeException e) {
+                DBMetrics.failed(sql);
+                if(ownTransaction)
+                    conn.rollback();
+                throw e;
+            } finally {
+                if(ownTransaction)
+                    conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOG.error(failureLog);
+            throw new RuntimeException(failureMessage, e);
+        }
     }
 
-    protected boolean hasColumn(ResultSet rs, String columnName) throws SQLException {
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int columns = rsmd.getColumnCount();
+    private PaginatedResponse<T> getParallelPage(Function<QueryBuilder, QueryBuilder> filter, List<String> fields,
+                                                 String sort, int start, int count) {
+        QueryBuilder countQuery = filter.apply(selectCount());
+        QueryBuilder pageQuery = filter.apply(select(fields)).page(sort, start, count);
+
+        //An open transaction has its own connection. Stay on it.
+        if(inTransaction()) {
+            List<T> results = get(pageQuery);
+            return new PaginatedResponse<>(start, results.size(), getCount(countQuery), results);
+        }
 
-        for(int x = 1; x <= columns; ++x) {
-            if (columnName.equals(rsmd.getColumnName(x))) {
-                return true;
+        //The page query completes, releasing its connection, before waiting on the count.
+        //Callers therefore never hold a connection while blocked on another.
+        CompletableFuture<Integer> totalResults =
+                CompletableFuture.supplyAsync(ContextExecutors.wrap(ReplicaRouting.wrap(() -> getCount(countQuery))), PAGE_EXECUTOR);
+        List<T> results = get(pageQuery);
+        try {
+            return new PaginatedResponse<>(start, results.size(), totalResults.join(), results);
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private PaginatedResponse<T> getWindowedPage(Function<QueryBuilder, QueryBuilder> filter, List<String> fields,
+                                                 String sort, int start, int count) {
+        List<String> selections = new ArrayList<>(fields);
+        selections.add("count(*) OVER() AS " + WINDOW_COUNT_COLUMN);
+        QueryBuilder query = filter.apply(select(selections)).page(sort, start, count);
+
+        List<T> results = new LinkedList<>();
+        int totalResults = 0;
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = query.prepareStatement(conn);
+             ResultSet rs = runQuery(query, stmt)) {
+
+            ColumnIndex columns = ColumnIndex.forQuery(query.getSql(), rs);
+            while (rs.next()) {
+                if(results.isEmpty())
+                    totalResults = rs.getInt(columns.requireIndex(WINDOW_COUNT_COLUMN));
+                results.add(processRow(rs, columns));
             }
+            DBMetrics.rowsRead(query.getSql(), results.size());
+        } catch (SQLException e) {
+            LOG.error("SQL failed: " + query.getSql());
+            throw new RuntimeException("Could not retrieve items.", e);
         }
 
-        return false;
+        //Paged past the end. The window has no rows to report the total on.
+        if(results.isEmpty() && start > 0)
+            totalResults = getCount(filter.apply(selectCount()));
+
+        return new PaginatedResponse<>(start, results.size(), totalResults, results);
+    }
+
+    private static ExecutorService createPageExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PAGE_THREADS, PAGE_THREADS, 60, SECONDS,
+                new ArrayBlockingQueue<>(PAGE_THREADS * 4),
+                r -> {
+                    Thread t = new Thread(r, "db-page-count-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ExecutorService createAsyncExecutor() {
+        if(ASYNC_VIRTUAL_THREADS) {
+            try {
+                //Looked up reflectively so the library still builds for Java 8.
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOG.warn("Virtual threads are not available in this JVM. Using platform threads for async db calls.");
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60, SECONDS,
+                new ArrayBlockingQueue<>(ASYNC_QUEUE_SIZE),
+                r -> {
+                    Thread t = new Thread(r, "db-async-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void closeStream(QueryBuilder query, Connection conn, PreparedStatement stmt, ResultSet rs, boolean restoreAutoCommit) {
+        try {
+            if(rs != null)
+                rs.close();
+            if(stmt != null)
+                stmt.close();
+            if(restoreAutoCommit) {
+                //Read only, but ends the transaction holding the cursor.
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to close streamed query: " + query.getSql(), e);
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                LOG.error("Failed to close connection for streamed query.", e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BatchWork {
+        int execute(Connection conn) throws SQLException;
     }
 }
@@ -0,0 +1,200 @@
+package org.servantscode.commons.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.servantscode.commons.EnvProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// Tells the other nodes of a service which cached entries a write has made stale, over Postgres LISTEN/NOTIFY.
+// Enabled with DB_INVALIDATION_BUS=true; otherwise publishing does nothing and no listener is started.
+//
+// publish() sends pg_notify on the writer's own connection, so inside a transaction the event is only delivered
+// if and when it commits. Each node listens on a dedicated connection (ConnectionFactory.createListenerConnection)
+// and hands events to the subscribers of their topic. A node ignores its own events; it invalidates locally as it writes.
+// Events sent while a listener is reconnecting are lost, so after a reconnect every subscriber gets a whole-topic event (null key).
+public class InvalidationBus {
+    private static final Logger LOG = LogManager.getLogger(InvalidationBus.class);
+
+    public static final String ORGANIZATION = "organization";
+    public static final String ORGANIZATION_HOST = "organization.host";
+    public static final String SESSION = "session";
+    public static final String PERSON_SESSIONS = "session.person";
+    public static final String CONFIGURATION = "configuration";
+    public static final String QUERY_TABLE = "query.table";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(EnvProperty.get("DB_INVALIDATION_BUS", "false"));
+    private static final String CHANNEL = EnvProperty.get("DB_INVALIDATION_CHANNEL", "sc_invalidation");
+    private static final int POLL_MILLIS = 10_000;
+    private static final int VALID_TIMEOUT_SECONDS = 5;
+    private static final long MIN_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    static final String NODE_ID = UUID.randomUUID().toString();
+
+    private static final Map<String, List<Consumer<InvalidationEvent>>> SUBSCRIBERS = new ConcurrentHashMap<>();
+    private static Thread listener;
+
+    public static boolean isEnabled() { return ENABLED; }
+
+    // Starts the listener on first use when the bus is enabled.
+    public static void subscribe(String topic, Consumer<InvalidationEvent> subscriber) {
+        SUBSCRIBERS.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(subscriber);
+        if(ENABLED)
+            start();
+    }
+
+    // Inside a transaction a failure fails the write with it. Outside one the write has already committed, so the failure is only logged.
+    public static void publish(Connection conn, String topic, Object key) {
+        if(!ENABLED)
+            return;
+
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_notify(?, ?)")) {
+            stmt.setString(1, CHANNEL);
+            stmt.setString(2, new InvalidationEvent(topic, key != null? key.toString(): null, NODE_ID).encode());
+            stmt.execute();
+        } catch (SQLException e) {
+            if(inTransaction(conn))
+                throw new RuntimeException("Could not publish invalidation: " + topic, e);
+            LOG.error("Could not publish invalidation: " + topic + ". Other nodes may serve stale entries until they expire.", e);
+        }
+    }
+
+    public static synchronized void start() {
+        if(listener != null)
+            return;
+
+        listener = new Thread(InvalidationBus::listen, "db-invalidation-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    public static synchronized void stop() {
+        if(listener == null)
+            return;
+
+        listener.interrupt();
+        listener = null;
+    }
+
+    public static class InvalidationEvent {
+        private final String topic;
+        private final String key;
+        private final String source;
+
+        private InvalidationEvent(String topic, String key, String source) {
+            this.topic = topic;
+            this.key = key;
+            this.source = source;
+        }
+
+        public String getTopic() { return topic; }
+        // Null when every entry for the topic should go.
+        public String getKey() { return key; }
+        public boolean isAll() { return key == null; }
+        public String getSource() { return source; }
+
+        // source|topic[|key]
+        String encode() {
+            return key == null? source + '|' + topic: source + '|' + topic + '|' + key;
+        }
+
+        static InvalidationEvent decode(String payload) {
+            String[] parts = payload.split("\\|", 3);
+            if(parts.length < 2)
+                throw new IllegalArgumentException("Invalid invalidation payload: " + payload);
+            return new InvalidationEvent(parts[1], parts.length > 2? parts[2]: null, parts[0]);
+        }
+    }
+
+    // ----- Private -----
+    private static boolean inTransaction(Connection conn) {
+        try {
+            return !conn.getAutoCommit();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    static void receive(String payload) {
+        InvalidationEvent event;
+        try {
+            event = InvalidationEvent.decode(payload);
+        } catch (IllegalArgumentException e) {
+            LOG.warn(e.getMessage());
+            return;
+        }
+
+        if(!NODE_ID.equals(event.source))
+            dispatch(event);
+    }
+
+    private static void dispatch(InvalidationEvent event) {
+        List<Consumer<InvalidationEvent>> subscribers = SUBSCRIBERS.get(event.topic);
+        if(subscribers == null)
+            return;
+
+        for(Consumer<InvalidationEvent> subscriber: subscribers) {
+            try {
+                subscriber.accept(event);
+            } catch (RuntimeException e) {
+                LOG.error("Invalidation subscriber failed for topic: " + event.topic, e);
+            }
+        }
+    }
+
+    private static void listen() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        boolean missedEvents = false;
+        while(!Thread.currentThread().isInterrupted()) {
+            try (Connection conn = DBAccess.newListenerConnection()) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN \"" + CHANNEL.replace("\"", "\"\"") + "\"");
+                }
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                LOG.info("Listening for cache invalidations on: " + CHANNEL);
+
+                if(missedEvents)
+                    SUBSCRIBERS.keySet().forEach(topic -> dispatch(new InvalidationEvent(topic, null, null)));
+                missedEvents = false;
+                backoff = MIN_BACKOFF_MILLIS;
+
+                while(!Thread.currentThread().isInterrupted()) {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_MILLIS);
+                    if(notifications != null) {
+                        for(PGNotification notification: notifications)
+                            receive(notification.getParameter());
+                    }
+                    //Waiting only reads, so a half open connection would otherwise go unnoticed forever.
+                    if(!conn.isValid(VALID_TIMEOUT_SECONDS))
+                        throw new SQLException("Invalidation listener connection is no longer valid.");
+                }
+            } catch (SQLException | RuntimeException e) {
+                if(Thread.currentThread().isInterrupted())
+                    break;
+
+                missedEvents = true;
+                LOG.warn(String.format("Invalidation listener disconnected. Reconnecting in %d msecs.", backoff), e);
+                try {
+                    Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2));
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        LOG.info("Invalidation listener stopped.");
+    }
+}
@@ -0,0 +1,71 @@
+package org.servantscode.commons.db;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.zip.CRC32;
+
+// One versioned schema change run by AbstractDBUpgrade. Applied once, in version order, inside a transaction
+// together with its schema_version row. The checksum is recorded so later edits to an applied migration are caught.
+public class Migration implements Comparable<Migration> {
+    @FunctionalInterface
+    public interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private final int version;
+    private final String description;
+    private final int checksum;
+    private final Step step;
+
+    private Migration(int version, String description, int checksum, Step step) {
+        if(version <= 0)
+            throw new IllegalArgumentException("Migration versions must be positive: " + version);
+
+        this.version = version;
+        this.description = description;
+        this.checksum = checksum;
+        this.step = step;
+    }
+
+    public static Migration sql(int version, String description, String... statements) {
+        return new Migration(version, description, checksum(statements), conn -> {
+            for(String sql: statements) {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.execute();
+                }
+            }
+        });
+    }
+
+    // For changes that need code. Bump the revision when the step's behavior changes.
+    public static Migration code(int version, String description, String revision, Step step) {
+        return new Migration(version, description, checksum(revision), step);
+    }
+
+    public int getVersion() { return version; }
+    public String getDescription() { return description; }
+    public int getChecksum() { return checksum; }
+
+    public void apply(Connection conn) throws SQLException {
+        step.apply(conn);
+    }
+
+    @Override
+    public int compareTo(Migration other) {
+        return Integer.compare(version, other.version);
+    }
+
+    // ----- Private -----
+    // Line endings and surrounding whitespace don't count, so a checkout with different line endings still matches.
+    static int checksum(String... parts) {
+        CRC32 crc = new CRC32();
+        for(String part: parts) {
+            String normalized = part.replace("\r\n", "\n").trim();
+            crc.update(normalized.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return (int) crc.getValue();
+    }
+}
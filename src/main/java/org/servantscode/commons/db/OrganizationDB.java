@@ -21,6 +21,19 @@ public class OrganizationDB extends DBAccess {
 
     static {
         FIELD_MAP.put("hostName","host_name");
+
+        InvalidationBus.subscribe(InvalidationBus.ORGANIZATION, event -> {
+            if(event.isAll())
+                OrganizationContext.clearOrganizationCache();
+            else
+                OrganizationContext.invalidateOrganization(Integer.parseInt(event.getKey()));
+        });
+        InvalidationBus.subscribe(InvalidationBus.ORGANIZATION_HOST, event -> {
+            if(event.isAll())
+                OrganizationContext.clearOrganizationCache();
+            else
+                OrganizationContext.invalidateHost(event.getKey());
+        });
     }
 
     public OrganizationDB() {
@@ -78,7 +91,7 @@ public class OrganizationDB extends DBAccess {
 
     public Organization create(Organization organization) {
         String sql = "INSERT INTO organizations (name, host_name) VALUES (?,?)";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             stmt.setString(1, organization.getName());
@@ -92,6 +105,8 @@ public class OrganizationDB extends DBAccess {
                 if (rs.next())
                     organization.setId(rs.getInt(1));
             }
+            invalidateAfterWrite(() -> OrganizationContext.invalidateHost(organization.getHostName()));
+            InvalidationBus.publish(conn, InvalidationBus.ORGANIZATION_HOST, organization.getHostName());
 
             return organization;
         } catch (SQLException e) {
@@ -101,7 +116,7 @@ public class OrganizationDB extends DBAccess {
 
     public Organization update(Organization organization) {
         String sql = "UPDATE organizations SET name=?, host_name=? WHERE id=?";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, organization.getName());
@@ -109,6 +124,12 @@ public class OrganizationDB extends DBAccess {
             stmt.setInt(3, organization.getId());
 
             stmt.executeUpdate();
+            invalidateAfterWrite(() -> {
+                OrganizationContext.invalidateOrganization(organization.getId());
+                OrganizationContext.invalidateHost(organization.getHostName());
+            });
+            InvalidationBus.publish(conn, InvalidationBus.ORGANIZATION, organization.getId());
+            InvalidationBus.publish(conn, InvalidationBus.ORGANIZATION_HOST, organization.getHostName());
 
             return organization;
         } catch (SQLException e) {
@@ -118,18 +139,20 @@ public class OrganizationDB extends DBAccess {
 
     public void delete(Organization organization) {
         String sql = "DELETE FROM organizations WHERE id=?";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, organization.getId());
             stmt.executeUpdate();
+            invalidateAfterWrite(() -> OrganizationContext.invalidateOrganization(organization.getId()));
+            InvalidationBus.publish(conn, InvalidationBus.ORGANIZATION, organization.getId());
         } catch (SQLException e) {
             throw new RuntimeException("Could not clean stale organizations.", e);
         }
     }
 
     public void attchPhoto(int id, String guid) {
-        try ( Connection conn = getConnection();
+        try ( Connection conn = getWriteConnection();
               PreparedStatement stmt = conn.prepareStatement("UPDATE organizations SET photo_guid=? WHERE id=?");
         ){
             stmt.setString(1, guid);
@@ -137,6 +160,8 @@ public class OrganizationDB extends DBAccess {
 
             if(stmt.executeUpdate() == 0)
                 throw new NotFoundException("Could not attach photo to organization: " + id);
+            invalidateAfterWrite(() -> OrganizationContext.invalidateOrganization(id));
+            InvalidationBus.publish(conn, InvalidationBus.ORGANIZATION, id);
 
         } catch (SQLException e) {
             throw new RuntimeException("Could not attach photo to organization: " + id, e);
@@ -145,13 +170,19 @@ public class OrganizationDB extends DBAccess {
 
     // ----- Private -----
     private List<Organization> processResults(ResultSet rs) throws SQLException {
+        ColumnIndex columns = ColumnIndex.of(rs);
+        int id = columns.requireIndex("id");
+        int name = columns.requireIndex("name");
+        int hostName = columns.requireIndex("host_name");
+        int photoGuid = columns.requireIndex("photo_guid");
+
         List<Organization> results = new LinkedList<>();
         while(rs.next()) {
             Organization org = new Organization();
-            org.setId(rs.getInt("id"));
-            org.setName(rs.getString("name"));
-            org.setHostName(rs.getString("host_name"));
-            org.setPhotoGuid(rs.getString("photo_guid"));
+            org.setId(rs.getInt(id));
+            org.setName(rs.getString(name));
+            org.setHostName(rs.getString(hostName));
+            org.setPhotoGuid(rs.getString(photoGuid));
             results.add(org);
         }
         return results;
@@ -6,12 +6,25 @@ import org.apache.logging.log4j.Logger;
 import org.servantscode.commons.EnvProperty;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static java.lang.String.format;
+import static java.util.Collections.emptyMap;
+import static org.servantscode.commons.StringUtils.isSet;
 
 public class PostgresConnectionFactory extends ConnectionFactory {
     private static Logger LOG = LogManager.getLogger(PostgresConnectionFactory.class);
 
+    // Server side prepared statement modes. pgjdbc caches statements per connection, keyed by sql text.
+    //  DEFAULT: Driver defaults. Statements are server prepared after being executed prepareThreshold (5) times.
+    //  EAGER:   Server prepare on first use. Best for a small number of hot query shapes.
+    //  OFF:     Never server prepare. Required behind transaction pooling proxies such as pgbouncer.
+    public enum StatementCacheMode {DEFAULT, EAGER, OFF};
+
     @Override
     public DataSource configureSource() {
         try {
@@ -23,17 +36,118 @@ public class PostgresConnectionFactory extends ConnectionFactory {
 
         String DB_HOST = EnvProperty.get("DB_HOST", "postgres");
         String DB_PORT = EnvProperty.get("DB_PORT","5432");
-        String DB_NAME = EnvProperty.get("DB_NAME","servantscode");
+
+        HikariDataSource source = createSource(DB_HOST, DB_PORT);
+        configurePool(source, EnvProperty.get("DB_POOL_SIZE"));
+        return source;
+    }
+
+    // DB_REPLICA_HOSTS: comma separated host[:port] list. Replicas share the primary's database and credentials.
+    @Override
+    public Map<String, DataSource> configureReplicas() {
+        String replicaHosts = EnvProperty.get("DB_REPLICA_HOSTS");
+        if(!isSet(replicaHosts))
+            return emptyMap();
+
+        String defaultPort = EnvProperty.get("DB_PORT","5432");
+        String poolSize = EnvProperty.get("DB_REPLICA_POOL_SIZE", EnvProperty.get("DB_POOL_SIZE"));
+
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for(String replica: replicaHosts.split(",")) {
+            String[] hostPort = replica.trim().split(":");
+            HikariDataSource source = createSource(hostPort[0], hostPort.length > 1? hostPort[1]: defaultPort);
+            source.setReadOnly(true);
+            configurePool(source, poolSize);
+            replicas.put(replica.trim(), source);
+        }
+        return replicas;
+    }
+
+    // Seconds of replay lag. Zero while streaming with everything received replayed, so an idle primary doesn't look like lag.
+    // A replica that isn't streaming only has its last replayed transaction to go by (never replayed counts as infinite),
+    // so broken replication shows up as growing lag. Reading the receiver status needs pg_read_all_stats (e.g. via pg_monitor).
+    @Override
+    protected String replicaLagQuery() {
+        return "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() " +
+               "AND EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming') THEN 0 " +
+               "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 'Infinity') END";
+    }
+
+    // Outside the pool so it neither takes a pool slot nor gets retired by the pool's max lifetime.
+    @Override
+    protected Connection createListenerConnection() throws SQLException {
+        String jdbcUrl = jdbcUrl(EnvProperty.get("DB_HOST", "postgres"), EnvProperty.get("DB_PORT","5432"));
+        return DriverManager.getConnection(jdbcUrl, EnvProperty.get("DB_USER","servant1"), EnvProperty.get("DB_PASSWORD"));
+    }
+
+    // ----- Private -----
+    private static String jdbcUrl(String host, String port) {
+        return format("jdbc:postgresql://%s:%s/%s", host, port, EnvProperty.get("DB_NAME","servantscode"));
+    }
+
+    private HikariDataSource createSource(String host, String port) {
         String DB_USER = EnvProperty.get("DB_USER","servant1");
         String DB_PASSWORD = EnvProperty.get("DB_PASSWORD");
 
         HikariDataSource source = new HikariDataSource();
-        String jdbcUrl = format("jdbc:postgresql://%s:%s/%s", DB_HOST, DB_PORT, DB_NAME);
+        String jdbcUrl = jdbcUrl(host, port);
         LOG.debug("Connecting to: " + jdbcUrl);
         source.setJdbcUrl(jdbcUrl);
         source.setUsername(DB_USER);
         source.setPassword(DB_PASSWORD);
 
+        configureStatementCache(source);
         return source;
     }
+
+    private void configurePool(HikariDataSource source, String poolSize) {
+        if(isSet(poolSize))
+            source.setMaximumPoolSize(Integer.parseInt(poolSize));
+
+        String minIdle = EnvProperty.get("DB_POOL_MIN_IDLE");
+        if(isSet(minIdle))
+            source.setMinimumIdle(Integer.parseInt(minIdle));
+
+        String connectionTimeout = EnvProperty.get("DB_CONNECTION_TIMEOUT");
+        if(isSet(connectionTimeout))
+            source.setConnectionTimeout(Long.parseLong(connectionTimeout));
+
+        String idleTimeout = EnvProperty.get("DB_IDLE_TIMEOUT");
+        if(isSet(idleTimeout))
+            source.setIdleTimeout(Long.parseLong(idleTimeout));
+
+        String maxLifetime = EnvProperty.get("DB_MAX_LIFETIME");
+        if(isSet(maxLifetime))
+            source.setMaxLifetime(Long.parseLong(maxLifetime));
+    }
+
+    private void configureStatementCache(HikariDataSource source) {
+        StatementCacheMode mode = StatementCacheMode.valueOf(EnvProperty.get("DB_STATEMENT_CACHE", StatementCacheMode.DEFAULT.toString()).toUpperCase());
+        switch (mode) {
+            case EAGER:
+                source.addDataSourceProperty("prepareThreshold", 1);
+                break;
+            case OFF:
+                source.addDataSourceProperty("prepareThreshold", 0);
+                break;
+        }
+
+        //Explicit settings override the mode.
+        String prepareThreshold = EnvProperty.get("DB_PREPARE_THRESHOLD");
+        if(isSet(prepareThreshold))
+            source.addDataSourceProperty("prepareThreshold", Integer.parseInt(prepareThreshold));
+
+        String cacheQueries = EnvProperty.get("DB_STATEMENT_CACHE_QUERIES");
+        if(isSet(cacheQueries)) {
+            source.addDataSourceProperty("preparedStatementCacheQueries", Integer.parseInt(cacheQueries));
+            StatementCacheStats.setCacheSize(Integer.parseInt(cacheQueries));
+        }
+
+        String cacheSize = EnvProperty.get("DB_STATEMENT_CACHE_SIZE_MIB");
+        if(isSet(cacheSize))
+            source.addDataSourceProperty("preparedStatementCacheSizeMiB", Integer.parseInt(cacheSize));
+
+        StatementCacheStats.setEnabled(Boolean.parseBoolean(EnvProperty.get("DB_STATEMENT_CACHE_METRICS")));
+        LOG.debug("Statement cache mode: " + mode);
+    }
 }
@@ -0,0 +1,305 @@
+package org.servantscode.commons.db;
+
+import org.servantscode.commons.EnvProperty;
+import org.servantscode.commons.Organization;
+import org.servantscode.commons.cache.ExpiringCache;
+import org.servantscode.commons.search.SqlBuilder;
+import org.servantscode.commons.security.OrganizationContext;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Opt in result cache for EasyDB reads, one per DAO class (see EasyDB.enableResultCache).
+// Results are keyed by sql, bound values and organization, and tagged with the tables the sql reads.
+//
+// Every table has a version that writes through DBAccess/EasyDB bump. Inside a transaction (TransactionTemplate or
+// DBAccess.startTransaction) they bump again once it completes. An entry is only served while the versions of its tables are those it was loaded under,
+// so a write makes it stale at once without scanning any cache. A write whose tables can't be found bumps everything.
+// Tables written behind our back (triggers, views, other services) aren't seen: tag them when enabling the cache,
+// and set DB_RESULT_CACHE_NOTIFY (with DB_INVALIDATION_BUS) to hear about writes made by other nodes.
+public class QueryCache {
+    private static final boolean ENABLED = Boolean.parseBoolean(EnvProperty.get("DB_RESULT_CACHE", "true"));
+    private static final int MAX_ENTRIES = Integer.parseInt(EnvProperty.get("DB_RESULT_CACHE_ENTRIES", "1000"));
+    private static final long MAX_ROWS = Long.parseLong(EnvProperty.get("DB_RESULT_CACHE_MAX_ROWS", "50000"));
+    //Every write then also sends a pg_notify, so only turn this on where result caches are used.
+    private static final boolean NOTIFY = Boolean.parseBoolean(EnvProperty.get("DB_RESULT_CACHE_NOTIFY", "false"));
+
+    private static final Pattern READ_KEYWORD = Pattern.compile("\\b(?:FROM|JOIN)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WRITE_TABLE = Pattern.compile(
+            "\\b(?:INSERT\\s+INTO|(?<!DO\\s)UPDATE|DELETE\\s+FROM|TRUNCATE(?:\\s+TABLE)?)\\s+(?:ONLY\\s+)?(\"?[\\w.]+\"?)", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> NOT_ALIASES = new HashSet<>(Arrays.asList(
+            "join", "left", "right", "inner", "outer", "full", "cross", "natural", "lateral", "on", "using", "where",
+            "group", "order", "having", "limit", "offset", "union", "intersect", "except", "window", "for", "returning", "set"));
+    private static final int MAX_PARSED = 1024;
+
+    private static final Map<Class<?>, QueryCache> CACHES = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> TABLE_VERSIONS = new ConcurrentHashMap<>();
+    private static final AtomicLong GLOBAL_VERSION = new AtomicLong();
+    private static final Map<String, String[]> READ_TABLES = new ConcurrentHashMap<>();
+    private static final Map<String, String[]> WRITE_TABLES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final String[] extraTables;
+    private final ExpiringCache<Key, Entry> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    static {
+        InvalidationBus.subscribe(InvalidationBus.QUERY_TABLE, event -> {
+            if(event.isAll())
+                GLOBAL_VERSION.incrementAndGet();
+            else
+                version(event.getKey()).incrementAndGet();
+        });
+    }
+
+    private QueryCache(String name, long ttlSeconds, String[] extraTables) {
+        this.name = name;
+        this.extraTables = extraTables;
+        this.cache = new ExpiringCache<>(MAX_ENTRIES, MAX_ROWS, entry -> entry.weight, SECONDS.toMillis(ttlSeconds));
+        DBMetrics.registerResultCache(name, cache::size);
+    }
+
+    // Shared by every instance of the DAO class. The first registration's settings stand.
+    public static QueryCache forDao(Class<?> dao, long ttlSeconds, String... tables) {
+        return CACHES.computeIfAbsent(dao, d -> new QueryCache(d.getSimpleName(), ttlSeconds, tables));
+    }
+
+    public static boolean isEnabled() { return ENABLED; }
+
+    // The weight counts against DB_RESULT_CACHE_MAX_ROWS, typically the number of rows.
+    @SuppressWarnings("unchecked")
+    public <R> R get(SqlBuilder query, Supplier<R> loader, ToLongFunction<R> weight) {
+        if(!ENABLED)
+            return loader.get();
+
+        String sql = query.getSql();
+        Key key = new Key(sql, query.getBoundValues(), keyOrgId());
+        Entry cached = cache.getIfPresent(key);
+        if(cached != null && cached.isCurrent()) {
+            hits.incrementAndGet();
+            DBMetrics.resultCacheHit(name);
+            return (R) cached.value;
+        }
+
+        misses.incrementAndGet();
+        DBMetrics.resultCacheMiss(name);
+        Entry entry = new Entry(readTables(sql, extraTables));
+        R value = loader.get();
+        entry.value = value;
+        entry.weight = value != null? Math.max(1, weight.applyAsLong(value)): 1;
+        //A write during the load may not be in what was read.
+        if(entry.isCurrent())
+            cache.put(key, entry);
+        return value;
+    }
+
+    public void clear() { cache.clear(); }
+    public int size() { return cache.size(); }
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    // Called after sql has written through conn. Reads by other connections until the write commits still see the old
+    // rows, so afterCompletion (see DBAccess.afterCompletion) must run the action again once it does.
+    static void written(Connection conn, String sql, Consumer<Runnable> afterCompletion) {
+        if(CACHES.isEmpty() && !NOTIFY)
+            return;
+
+        String[] tables = writeTables(sql);
+        invalidate(tables);
+        afterCompletion.accept(() -> invalidate(tables));
+
+        if(NOTIFY) {
+            if(tables.length == 0)
+                InvalidationBus.publish(conn, InvalidationBus.QUERY_TABLE, null);
+            for(String table: tables)
+                InvalidationBus.publish(conn, InvalidationBus.QUERY_TABLE, table);
+        }
+    }
+
+    // Makes every cached result reading these tables stale. No tables means all of them.
+    public static void invalidate(String... tables) {
+        if(tables.length == 0)
+            GLOBAL_VERSION.incrementAndGet();
+        for(String table: normalize(tables))
+            version(table).incrementAndGet();
+    }
+
+    static void clearAll() {
+        CACHES.values().forEach(QueryCache::clear);
+        CACHES.clear();
+    }
+
+    // ----- Private -----
+    // Single tenant services, and requests without an enabled organization (e.g. an unknown host), share org 0.
+    private static int keyOrgId() {
+        if(!OrganizationContext.isMultiTenant())
+            return 0;
+        Organization org = OrganizationContext.getOrganization();
+        return org != null? org.getId(): 0;
+    }
+
+    private static AtomicLong version(String table) {
+        return TABLE_VERSIONS.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    static String[] readTables(String sql, String... extraTables) {
+        String[] tables = READ_TABLES.get(sql);
+        if(tables == null) {
+            tables = parseReadTables(sql);
+            if(READ_TABLES.size() < MAX_PARSED)
+                READ_TABLES.put(sql, tables);
+        }
+        if(extraTables.length == 0)
+            return tables;
+
+        Set<String> all = new LinkedHashSet<>(Arrays.asList(tables));
+        all.addAll(Arrays.asList(normalize(extraTables)));
+        return all.toArray(new String[0]);
+    }
+
+    static String[] writeTables(String sql) {
+        String[] tables = WRITE_TABLES.get(sql);
+        if(tables == null) {
+            Set<String> found = new LinkedHashSet<>();
+            Matcher matcher = WRITE_TABLE.matcher(sql);
+            while(matcher.find())
+                found.add(normalize(matcher.group(1)));
+            tables = found.toArray(new String[0]);
+            if(WRITE_TABLES.size() < MAX_PARSED)
+                WRITE_TABLES.put(sql, tables);
+        }
+        return tables;
+    }
+
+    // Table names after each FROM and JOIN, including comma separated lists. Subqueries are reached by their own FROMs.
+    // Over matching (a CTE or function name) only costs an extra tag.
+    private static String[] parseReadTables(String sql) {
+        Set<String> tables = new LinkedHashSet<>();
+        Matcher matcher = READ_KEYWORD.matcher(sql);
+        while(matcher.find()) {
+            int pos = matcher.end();
+            while(true) {
+                pos = skipSpace(sql, pos);
+                String name = identifier(sql, pos);
+                if(name.isEmpty())
+                    break;
+                pos += name.length();
+                if(name.equalsIgnoreCase("ONLY") || name.equalsIgnoreCase("LATERAL"))
+                    continue;
+                tables.add(normalize(name));
+
+                // Optional alias, then maybe another table.
+                pos = skipSpace(sql, pos);
+                String alias = identifier(sql, pos);
+                if(alias.equalsIgnoreCase("AS")) {
+                    pos = skipSpace(sql, pos + alias.length());
+                    alias = identifier(sql, pos);
+                }
+                if(!alias.isEmpty() && !NOT_ALIASES.contains(alias.toLowerCase()))
+                    pos = skipSpace(sql, pos + alias.length());
+                if(pos >= sql.length() || sql.charAt(pos) != ',')
+                    break;
+                pos++;
+            }
+        }
+        return tables.toArray(new String[0]);
+    }
+
+    private static int skipSpace(String sql, int pos) {
+        while(pos < sql.length() && Character.isWhitespace(sql.charAt(pos)))
+            pos++;
+        return pos;
+    }
+
+    private static String identifier(String sql, int pos) {
+        int end = pos;
+        while(end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || "_.\"".indexOf(sql.charAt(end)) >= 0))
+            end++;
+        return sql.substring(pos, end);
+    }
+
+    // Schema and quotes dropped, so "public.Person" and person are the same table.
+    private static String normalize(String table) {
+        String name = table.replace("\"", "");
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+    }
+
+    private static String[] normalize(String[] tables) {
+        String[] normalized = new String[tables.length];
+        for(int i=0; i<tables.length; i++)
+            normalized[i] = normalize(tables[i]);
+        return normalized;
+    }
+
+    private static class Key {
+        private final String sql;
+        private final List<Object> values;
+        private final int orgId;
+        private final int hash;
+
+        private Key(String sql, List<Object> values, int orgId) {
+            this.sql = sql;
+            this.values = values;
+            this.orgId = orgId;
+            this.hash = Objects.hash(sql, values, orgId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return hash == other.hash && orgId == other.orgId && sql.equals(other.sql) && values.equals(other.values);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+
+    // Versions are taken before loading, so anything written after that makes the entry stale.
+    private static class Entry {
+        private final long globalVersion;
+        private final AtomicLong[] versions;
+        private final long[] loadedVersions;
+        private Object value;
+        private long weight;
+
+        private Entry(String[] tables) {
+            this.globalVersion = GLOBAL_VERSION.get();
+            this.versions = new AtomicLong[tables.length];
+            this.loadedVersions = new long[tables.length];
+            for(int i=0; i<tables.length; i++) {
+                versions[i] = version(tables[i]);
+                loadedVersions[i] = versions[i].get();
+            }
+        }
+
+        private boolean isCurrent() {
+            if(GLOBAL_VERSION.get() != globalVersion)
+                return false;
+            for(int i=0; i<versions.length; i++) {
+                if(versions[i].get() != loadedVersions[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+}
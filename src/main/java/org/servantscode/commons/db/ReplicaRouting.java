@@ -0,0 +1,50 @@
+package org.servantscode.commons.db;
+
+import org.servantscode.commons.EnvProperty;
+import org.servantscode.commons.security.ContextHolder;
+
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Read-your-writes for replica routing. Once the current request has written to the primary,
+// its later reads go to the primary too, so they can't miss their own changes on a lagging replica.
+// ClearAuthFilter clears the pin at the end of each request. Outside a request it lapses after DB_REPLICA_PIN_SECONDS.
+public class ReplicaRouting {
+    private static final long PIN_NANOS = SECONDS.toNanos(Long.parseLong(EnvProperty.get("DB_REPLICA_PIN_SECONDS", "30")));
+
+    private static final ContextHolder<Long> PINNED_UNTIL = ContextHolder.create("replicaPin");
+
+    public static void pinToPrimary() {
+        PINNED_UNTIL.set(System.nanoTime() + PIN_NANOS);
+    }
+
+    public static boolean isPinned() {
+        Long until = PINNED_UNTIL.get();
+        return until != null && System.nanoTime() - until < 0;
+    }
+
+    public static void clear() {
+        PINNED_UNTIL.remove();
+    }
+
+    // Carries the pin to work run on another thread.
+    public static <T> Supplier<T> wrap(Supplier<T> work) {
+        Long until = PINNED_UNTIL.get();
+        if(until == null)
+            return work;
+
+        return () -> {
+            Long previous = PINNED_UNTIL.get();
+            PINNED_UNTIL.set(until);
+            try {
+                return work.get();
+            } finally {
+                if(previous != null)
+                    PINNED_UNTIL.set(previous);
+                else
+                    PINNED_UNTIL.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package org.servantscode.commons.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Maps the current row. The column index is resolved once for the whole result set; read by index where it matters.
+@FunctionalInterface
+public interface RowMapper<T> {
+    T map(ResultSet rs, ColumnIndex columns) throws SQLException;
+}
@@ -2,19 +2,66 @@ package org.servantscode.commons.db;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
 import org.servantscode.commons.Session;
+import org.servantscode.commons.cache.ExpiringCache;
 import org.servantscode.commons.search.QueryBuilder;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class SessionDB extends DBAccess {
     private static Logger LOG = LogManager.getLogger(SessionDB.class);
 
+    //Sessions are verified on every request. Cache them briefly, never past their expiration.
+    //Unknown tokens are not cached so that newly created sessions are visible immediately.
+    //Keyed by a hash of the token, which is also all that goes out on the InvalidationBus. Tokens are bearer credentials.
+    private static final long SESSION_CACHE_TTL = SECONDS.toMillis(Long.parseLong(EnvProperty.get("SESSION_CACHE_TTL", "60")));
+    private static final ExpiringCache<String, Session> SESSION_CACHE =
+            new ExpiringCache<>(Integer.parseInt(EnvProperty.get("SESSION_CACHE_SIZE", "10000")), SESSION_CACHE_TTL, 0);
+
+    //Calling ip changes are coalesced per token and written in batches.
+    private static final long IP_FLUSH_INTERVAL = SECONDS.toMillis(Long.parseLong(EnvProperty.get("SESSION_IP_FLUSH_INTERVAL", "5")));
+    private static final Map<String, String> PENDING_IPS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService ipFlusher = null;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static {
+        InvalidationBus.subscribe(InvalidationBus.SESSION, event -> {
+            if(event.isAll())
+                SESSION_CACHE.clear();
+            else
+                SESSION_CACHE.invalidate(event.getKey());
+        });
+        InvalidationBus.subscribe(InvalidationBus.PERSON_SESSIONS, event -> {
+            if(event.isAll()) {
+                SESSION_CACHE.clear();
+            } else {
+                int personId = Integer.parseInt(event.getKey());
+                SESSION_CACHE.invalidateIf((token, session) -> session != null && session.getPersonId() == personId);
+            }
+        });
+    }
+
+    public static ExpiringCache<String, Session> getSessionCache() { return SESSION_CACHE; }
+
     public List<Session> getSessions(int personId) {
         QueryBuilder query = selectAll().from("sessions").where("person_id=?", personId).inOrg();
         try (Connection conn = getConnection();
@@ -28,6 +75,10 @@ public class SessionDB extends DBAccess {
     }
 
     public Session getSessionByToken(String token) {
+        return SESSION_CACHE.get(tokenHash(token), hash -> loadSessionByToken(token), SessionDB::cacheTtl);
+    }
+
+    public Session loadSessionByToken(String token) {
         QueryBuilder query = selectAll().from("sessions").where("token=?", token);
         try (Connection conn = getConnection();
              PreparedStatement stmt = query.prepareStatement(conn);
@@ -41,7 +92,7 @@ public class SessionDB extends DBAccess {
 
     public void createSession(Session session) {
         String sql = "INSERT INTO sessions (person_id, org_id, token, expiration, ip) VALUES (?,?,?,?,?)";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, session.getPersonId());
@@ -51,6 +102,7 @@ public class SessionDB extends DBAccess {
             stmt.setString(5, session.getIp());
 
             stmt.executeUpdate();
+            invalidateAfterWrite(() -> SESSION_CACHE.invalidate(tokenHash(session.getToken())));
 
         } catch (SQLException e) {
             throw new RuntimeException("Could not create session: ", e);
@@ -59,26 +111,72 @@ public class SessionDB extends DBAccess {
 
     public void updateCallingIp(Session session) {
         String sql = "UPDATE sessions SET ip=? WHERE token=?";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, session.getIp());
             stmt.setString(2, session.getToken());
 
             stmt.executeUpdate();
-
+            PENDING_IPS.remove(session.getToken());
+            invalidateAfterWrite(() -> SESSION_CACHE.invalidate(tokenHash(session.getToken())));
+            InvalidationBus.publish(conn, InvalidationBus.SESSION, tokenHash(session.getToken()));
         } catch (SQLException e) {
             throw new RuntimeException("Could not create session: ", e);
         }
     }
 
+    //Records the new calling ip and writes it behind on the next flush. The cached session is shared between requests,
+    //so it is left as is and reloaded once the flush is written. False when this ip is already queued.
+    public boolean queueCallingIpUpdate(String token, String ip) {
+        if(ip.equals(PENDING_IPS.put(token, ip)))
+            return false;
+        startIpFlusher();
+        return true;
+    }
+
+    public void flushCallingIpUpdates() {
+        if(PENDING_IPS.isEmpty())
+            return;
+
+        Map<String, String> updates = new HashMap<>();
+        for(String token: new ArrayList<>(PENDING_IPS.keySet())) {
+            String ip = PENDING_IPS.remove(token);
+            if(ip != null)
+                updates.put(token, ip);
+        }
+        if(updates.isEmpty())
+            return;
+
+        String sql = "UPDATE sessions SET ip=? WHERE token=?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for(Map.Entry<String, String> update: updates.entrySet()) {
+                stmt.setString(1, update.getValue());
+                stmt.setString(2, update.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            invalidateAfterWrite(() -> updates.keySet().forEach(token -> SESSION_CACHE.invalidate(tokenHash(token))));
+            LOG.trace("Flushed " + updates.size() + " calling ip updates.");
+        } catch (SQLException e) {
+            //Newer updates queued since the drain win.
+            updates.forEach(PENDING_IPS::putIfAbsent);
+            throw new RuntimeException("Could not update calling ips.", e);
+        }
+    }
+
     public void deleteSession(Session session) {
         String sql = "DELETE FROM sessions WHERE token=?";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, session.getToken());
             stmt.executeUpdate();
+            PENDING_IPS.remove(session.getToken());
+            invalidateAfterWrite(() -> SESSION_CACHE.invalidate(tokenHash(session.getToken())));
+            InvalidationBus.publish(conn, InvalidationBus.SESSION, tokenHash(session.getToken()));
         } catch (SQLException e) {
             throw new RuntimeException("Could not clean stale sessions.", e);
         }
@@ -86,11 +184,13 @@ public class SessionDB extends DBAccess {
 
     public void deleteAllSessions(int personId) {
         String sql = "DELETE FROM sessions WHERE person_id=?";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, personId);
             stmt.executeUpdate();
+            invalidateAfterWrite(() -> SESSION_CACHE.invalidateIf((token, session) -> session != null && session.getPersonId() == personId));
+            InvalidationBus.publish(conn, InvalidationBus.PERSON_SESSIONS, personId);
         } catch (SQLException e) {
             throw new RuntimeException("Could not clean stale sessions.", e);
         }
@@ -98,7 +198,7 @@ public class SessionDB extends DBAccess {
 
     public void clearExpiredTokens() {
         String sql = "DELETE FROM sessions WHERE expiration < now() - INTERVAL '1 day'";
-        try (Connection conn = getConnection();
+        try (Connection conn = getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             LOG.info("Cleaned up %d stale sessions.", stmt.executeQuery());
@@ -107,16 +207,79 @@ public class SessionDB extends DBAccess {
         }
     }
 
+    // SHA-256, hex encoded.
+    static String tokenHash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for(int i=0; i<digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not hash session token.", e);
+        }
+    }
+
     // ----- Private -----
+    private static long cacheTtl(Session session) {
+        if(session == null || session.getExpiration() == null)
+            return 0;
+
+        long untilExpiration = session.getExpiration().toInstant().toEpochMilli() - System.currentTimeMillis();
+        return Math.min(SESSION_CACHE_TTL, untilExpiration);
+    }
+
+    //Writes whatever is still queued. Called as the connection factory closes.
+    static synchronized void stopIpFlusher() {
+        if(ipFlusher == null)
+            return;
+
+        ipFlusher.shutdownNow();
+        ipFlusher = null;
+        try {
+            new SessionDB().flushCallingIpUpdates();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to flush calling ip updates on shutdown.", e);
+        }
+    }
+
+    private static synchronized void startIpFlusher() {
+        if(ipFlusher != null)
+            return;
+
+        SessionDB flushDb = new SessionDB();
+        ipFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-ip-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        ipFlusher.scheduleWithFixedDelay(() -> {
+            try {
+                flushDb.flushCallingIpUpdates();
+            } catch (Throwable t) {
+                LOG.error("Failed to flush calling ip updates.", t);
+            }
+        }, IP_FLUSH_INTERVAL, IP_FLUSH_INTERVAL, MILLISECONDS);
+    }
+
     private List<Session> processResults(ResultSet rs) throws SQLException {
+        ColumnIndex columns = ColumnIndex.of(rs);
+        int personId = columns.requireIndex("person_id");
+        int orgId = columns.requireIndex("org_id");
+        int token = columns.requireIndex("token");
+        int expiration = columns.requireIndex("expiration");
+        int ip = columns.requireIndex("ip");
+
         List<Session> results = new LinkedList<>();
         while(rs.next()) {
             Session s = new Session();
-            s.setPersonId(rs.getInt("person_id"));
-            s.setOrgId(rs.getInt("org_id"));
-            s.setToken(rs.getString("token"));
-            s.setExpiration(convert(rs.getTimestamp("expiration")));
-            s.setIp(rs.getString("ip"));
+            s.setPersonId(rs.getInt(personId));
+            s.setOrgId(rs.getInt(orgId));
+            s.setToken(rs.getString(token));
+            s.setExpiration(convert(rs.getTimestamp(expiration)));
+            s.setIp(rs.getString(ip));
             results.add(s);
         }
         return results;
@@ -0,0 +1,283 @@
+package org.servantscode.commons.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
+import org.servantscode.commons.metrics.Metrics;
+import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.commons.search.SqlBuilder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZonedDateTime;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Keeps the most recent slow statements in a ring buffer of DB_SLOW_QUERY_BUFFER entries.
+// A statement is slow when it runs longer than its shape's threshold (see setThreshold), or DB_SLOW_QUERY_MS otherwise.
+//
+// Bound values are captured for DB_SLOW_QUERY_SAMPLE_RATE (0 to 1) of slow statements, as DB_SLOW_QUERY_VALUES says:
+//  NONE:     No values.
+//  REDACTED: Text and binary values become a type and length placeholder. Numbers, booleans, dates and enums are kept.
+//  FULL:     Values as bound.
+//
+// DB_SLOW_QUERY_EXPLAIN runs EXPLAIN (ANALYZE, BUFFERS) in the background for slow selects:
+//  OFF:     Only when asked for through explain(id).
+//  REPLICA: Automatically when a healthy replica can run it.
+//  ALWAYS:  Automatically, on the primary when no replica is available.
+// ANALYZE executes the query again, so a shape is explained at most once per DB_SLOW_QUERY_EXPLAIN_INTERVAL seconds.
+// Data modifying statements are never explained.
+public class SlowQueryLog {
+    private static final Logger LOG = LogManager.getLogger(SlowQueryLog.class);
+
+    public enum ValueCapture {NONE, REDACTED, FULL};
+    public enum ExplainMode {OFF, REPLICA, ALWAYS};
+
+    private static final long DEFAULT_THRESHOLD_NANOS = MILLISECONDS.toNanos(Long.parseLong(EnvProperty.get("DB_SLOW_QUERY_MS", "1000")));
+    private static final double SAMPLE_RATE = Double.parseDouble(EnvProperty.get("DB_SLOW_QUERY_SAMPLE_RATE", "1"));
+    private static final ValueCapture VALUE_CAPTURE = ValueCapture.valueOf(EnvProperty.get("DB_SLOW_QUERY_VALUES", "REDACTED").toUpperCase());
+    private static final ExplainMode EXPLAIN_MODE = ExplainMode.valueOf(EnvProperty.get("DB_SLOW_QUERY_EXPLAIN", "OFF").toUpperCase());
+    private static final long EXPLAIN_INTERVAL_NANOS = SECONDS.toNanos(Long.parseLong(EnvProperty.get("DB_SLOW_QUERY_EXPLAIN_INTERVAL", "300")));
+    private static final int EXPLAIN_TIMEOUT_SECONDS = Integer.parseInt(EnvProperty.get("DB_SLOW_QUERY_EXPLAIN_TIMEOUT", "60"));
+    private static final int BUFFER_SIZE = Integer.parseInt(EnvProperty.get("DB_SLOW_QUERY_BUFFER", "200"));
+
+    private static final Map<String, Long> THRESHOLDS = new ConcurrentHashMap<>();
+    //Lowest of all thresholds. Anything faster is dismissed without working out its shape.
+    private static volatile long minThresholdNanos = DEFAULT_THRESHOLD_NANOS;
+
+    private static final AtomicReferenceArray<SlowQuery> BUFFER = new AtomicReferenceArray<>(BUFFER_SIZE);
+    private static final AtomicLong LAST_ID = new AtomicLong();
+
+    private static final Map<String, Long> LAST_EXPLAINED = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor EXPLAIN_EXECUTOR = createExplainExecutor();
+
+    // Threshold for every statement with the same shape as sql. See Metrics.shape().
+    public static void setThreshold(String sql, long millis) {
+        THRESHOLDS.put(Metrics.shape(sql), MILLISECONDS.toNanos(millis));
+        updateMinThreshold();
+    }
+
+    public static void clearThresholds() {
+        THRESHOLDS.clear();
+        updateMinThreshold();
+    }
+
+    public static void record(SqlBuilder cmd, long elapsedNanos) {
+        if(elapsedNanos < minThresholdNanos)
+            return;
+
+        String sql = cmd.getSql();
+        String shape = Metrics.shape(sql);
+        if(elapsedNanos < THRESHOLDS.getOrDefault(shape, DEFAULT_THRESHOLD_NANOS))
+            return;
+
+        long elapsedMs = NANOSECONDS.toMillis(elapsedNanos);
+        LOG.warn(String.format("Slow query (%d msecs): %s", elapsedMs, sql));
+
+        boolean sampled = VALUE_CAPTURE != ValueCapture.NONE && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE;
+        SlowQuery entry = new SlowQuery(LAST_ID.incrementAndGet(), shape, sql, elapsedMs,
+                sampled? captureValues(cmd): null, cmd instanceof QueryBuilder? (QueryBuilder) cmd: null);
+        BUFFER.set(slot(entry.id), entry);
+
+        if(EXPLAIN_MODE != ExplainMode.OFF && entry.query != null && explainDue(shape))
+            submitExplain(entry, EXPLAIN_MODE == ExplainMode.ALWAYS);
+    }
+
+    // Newest first.
+    public static List<SlowQuery> getRecent(int limit) {
+        List<SlowQuery> recent = new ArrayList<>();
+        long last = LAST_ID.get();
+        for(long id = last; id > 0 && id > last - BUFFER_SIZE && recent.size() < limit; id--) {
+            SlowQuery entry = get(id);
+            if(entry != null)
+                recent.add(entry);
+        }
+        return recent;
+    }
+
+    public static SlowQuery get(long id) {
+        if(id <= 0)
+            return null;
+        SlowQuery entry = BUFFER.get(slot(id));
+        return entry != null && entry.id == id? entry: null;
+    }
+
+    // Explains a recorded select now. Runs on the primary only when DB_SLOW_QUERY_EXPLAIN is ALWAYS.
+    public static CompletableFuture<SlowQuery> explain(long id) {
+        SlowQuery entry = get(id);
+        if(entry == null)
+            throw new IllegalArgumentException("No slow query with id: " + id);
+        if(entry.query == null)
+            throw new IllegalArgumentException("Only select statements can be explained.");
+
+        return submitExplain(entry, EXPLAIN_MODE == ExplainMode.ALWAYS);
+    }
+
+    public static void clear() {
+        for(int i = 0; i < BUFFER_SIZE; i++)
+            BUFFER.set(i, null);
+        LAST_EXPLAINED.clear();
+    }
+
+    public static class SlowQuery {
+        private final long id;
+        private final ZonedDateTime time = ZonedDateTime.now();
+        private final String shape;
+        private final String sql;
+        private final long elapsedMs;
+        private final List<Object> values;
+        private volatile String plan;
+        private volatile String explainError;
+
+        //Held with its actual values so it can be explained. Not exposed.
+        private final QueryBuilder query;
+
+        private SlowQuery(long id, String shape, String sql, long elapsedMs, List<Object> values, QueryBuilder query) {
+            this.id = id;
+            this.shape = shape;
+            this.sql = sql;
+            this.elapsedMs = elapsedMs;
+            this.values = values;
+            this.query = query;
+        }
+
+        public long getId() { return id; }
+        public ZonedDateTime getTime() { return time; }
+        public String getShape() { return shape; }
+        public String getSql() { return sql; }
+        public long getElapsedMs() { return elapsedMs; }
+        // Null when values were not sampled.
+        public List<Object> getValues() { return values; }
+        public String getPlan() { return plan; }
+        public String getExplainError() { return explainError; }
+        public boolean isExplainable() { return query != null; }
+    }
+
+    // ----- Private -----
+    private static int slot(long id) {
+        return (int) (id % BUFFER_SIZE);
+    }
+
+    private static void updateMinThreshold() {
+        long min = DEFAULT_THRESHOLD_NANOS;
+        for(long threshold: THRESHOLDS.values())
+            min = Math.min(min, threshold);
+        minThresholdNanos = min;
+    }
+
+    private static List<Object> captureValues(SqlBuilder cmd) {
+        List<Object> bound = cmd.getBoundValues();
+        List<Object> captured = new ArrayList<>(bound.size());
+        for(Object value: bound)
+            captured.add(VALUE_CAPTURE == ValueCapture.FULL? display(value): redact(value));
+        return captured;
+    }
+
+    private static Object display(Object value) {
+        if(value == null || value instanceof Number || value instanceof Boolean)
+            return value;
+        return value instanceof String? value: redact(value);
+    }
+
+    private static Object redact(Object value) {
+        if(value == null || value instanceof Number || value instanceof Boolean)
+            return value;
+        if(value instanceof Enum || value instanceof Temporal || value instanceof Date)
+            return value.toString();
+        if(value instanceof String)
+            return String.format("<text:%d>", ((String) value).length());
+        return "<" + value.getClass().getSimpleName() + ">";
+    }
+
+    private static boolean explainDue(String shape) {
+        long now = System.nanoTime();
+        Long last = LAST_EXPLAINED.get(shape);
+        if(last != null && now - last < EXPLAIN_INTERVAL_NANOS)
+            return false;
+
+        if(LAST_EXPLAINED.size() > 1000)
+            LAST_EXPLAINED.clear();
+        return last == null? LAST_EXPLAINED.putIfAbsent(shape, now) == null: LAST_EXPLAINED.replace(shape, last, now);
+    }
+
+    private static CompletableFuture<SlowQuery> submitExplain(SlowQuery entry, boolean allowPrimary) {
+        try {
+            return CompletableFuture.supplyAsync(() -> runExplain(entry, allowPrimary), EXPLAIN_EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Explain queue full. Skipping slow query: " + entry.id);
+            CompletableFuture<SlowQuery> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    private static SlowQuery runExplain(SlowQuery entry, boolean allowPrimary) {
+        ConnectionFactory factory = DBAccess.getConnectionFactory();
+        boolean replicaAvailable = factory != null && factory.getReplicas().stream().anyMatch(ConnectionFactory.Replica::isHealthy);
+        if(!replicaAvailable && !allowPrimary) {
+            entry.explainError = "No healthy replica available to run EXPLAIN ANALYZE on.";
+            return entry;
+        }
+
+        QueryBuilder explain = entry.query.explain("ANALYZE, BUFFERS");
+        try (Connection conn = replicaAvailable? factory.getReadConnection(): DBAccess.newConnection()) {
+            //ANALYZE really runs the query. setReadOnly() is ignored on an autocommit connection by default, so use an
+            //explicit read only transaction (writing CTEs and functions that write then fail) and always roll it back.
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET TRANSACTION READ ONLY");
+                }
+                try (PreparedStatement stmt = explain.prepareStatement(conn)) {
+                    stmt.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        StringBuilder plan = new StringBuilder();
+                        while (rs.next())
+                            plan.append(rs.getString(1)).append('\n');
+                        entry.plan = plan.toString();
+                        entry.explainError = null;
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Could not explain slow query: " + entry.sql, e);
+            entry.explainError = e.getMessage();
+        }
+        return entry;
+    }
+
+    private static ThreadPoolExecutor createExplainExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, SECONDS,
+                new ArrayBlockingQueue<>(16),
+                r -> {
+                    Thread t = new Thread(r, "db-slow-query-explain");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
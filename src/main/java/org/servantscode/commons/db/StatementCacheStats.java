@@ -0,0 +1,90 @@
+package org.servantscode.commons.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Tracks how well prepared statements are reused on each physical connection.
+// pgjdbc caches prepared statements per connection keyed by exact sql text (preparedStatementCacheQueries, default 256).
+// This mirrors that cache so we can see whether the sql generated by the SqlBuilders is stable enough to hit it.
+public class StatementCacheStats {
+    private static final Logger LOG = LogManager.getLogger(StatementCacheStats.class);
+
+    private static volatile boolean enabled = false;
+    private static volatile int cacheSize = 256;
+
+    private static final Map<Connection, Map<String, Boolean>> CONNECTIONS = new WeakHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    public static void setEnabled(boolean enable) { enabled = enable; }
+    public static boolean isEnabled() { return enabled; }
+
+    public static void setCacheSize(int size) { cacheSize = size; }
+
+    public static void record(Connection conn, String sql) {
+        if(!enabled)
+            return;
+
+        Connection physical = physicalConnection(conn);
+        boolean hit;
+        synchronized (CONNECTIONS) {
+            Map<String, Boolean> statements = CONNECTIONS.computeIfAbsent(physical, c -> newStatementCache());
+            hit = statements.put(sql, Boolean.TRUE) != null;
+        }
+
+        if(hit)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+    }
+
+    public static long getHitCount() { return hits.get(); }
+    public static long getMissCount() { return misses.get(); }
+
+    public static double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0? 0: (double) hits.get() / total;
+    }
+
+    public static int getTrackedConnections() {
+        synchronized (CONNECTIONS) {
+            return CONNECTIONS.size();
+        }
+    }
+
+    public static void reset() {
+        synchronized (CONNECTIONS) {
+            CONNECTIONS.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    // ----- Private -----
+    private static Map<String, Boolean> newStatementCache() {
+        int size = cacheSize;
+        return new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    // Pooled connections are handed out as proxies. Statements are cached on the underlying connection.
+    private static Connection physicalConnection(Connection conn) {
+        try {
+            return conn.isWrapperFor(Connection.class)? conn.unwrap(Connection.class): conn;
+        } catch (SQLException e) {
+            LOG.debug("Could not unwrap pooled connection.", e);
+            return conn;
+        }
+    }
+}
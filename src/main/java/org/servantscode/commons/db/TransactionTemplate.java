@@ -0,0 +1,278 @@
+package org.servantscode.commons.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
+import org.servantscode.commons.security.ContextHolder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Runs work in a transaction bound to the current request context rather than to a DAO instance.
+// While the work runs, DBAccess.getConnection() in the same context returns the transaction's connection,
+// so DAOs can be shared singletons.
+//
+// Nested calls join the open transaction inside a savepoint. A failure there rolls back only the nested work.
+// Serialization failures and deadlocks (SQLState 40001, 40P01) re-run the outermost unit of work,
+// so it must be safe to repeat. Templates are immutable and safe to share.
+public class TransactionTemplate {
+    private static final Logger LOG = LogManager.getLogger(TransactionTemplate.class);
+
+    private static final int DEFAULT_RETRIES = Integer.parseInt(EnvProperty.get("DB_TRANSACTION_RETRIES", "3"));
+    private static final long RETRY_BACKOFF_MS = 20;
+
+    //Not carried by ContextExecutors: a connection must only be used by one thread at a time.
+    private static final ContextHolder<Scope> CURRENT = ContextHolder.create("transaction");
+
+    public static final TransactionTemplate DEFAULT = new TransactionTemplate();
+
+    private final Integer isolation;
+    private final boolean readOnly;
+    private final int retries;
+
+    public TransactionTemplate() {
+        this(null, false, DEFAULT_RETRIES);
+    }
+
+    private TransactionTemplate(Integer isolation, boolean readOnly, int retries) {
+        this.isolation = isolation;
+        this.readOnly = readOnly;
+        this.retries = retries;
+    }
+
+    // One of the Connection.TRANSACTION_* levels.
+    public TransactionTemplate isolation(int level) { return new TransactionTemplate(level, readOnly, retries); }
+    public TransactionTemplate readOnly() { return readOnly(true); }
+    public TransactionTemplate readOnly(boolean readOnly) { return new TransactionTemplate(isolation, readOnly, retries); }
+    public TransactionTemplate retries(int retries) { return new TransactionTemplate(isolation, readOnly, retries); }
+
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    public <R> R execute(Function<Connection, R> work) {
+        Scope scope = CURRENT.get();
+        if(scope != null)
+            return executeNested(scope, work);
+
+        for(int attempt = 0; ; attempt++) {
+            try {
+                return executeNew(work);
+            } catch (RuntimeException e) {
+                if(attempt >= retries || !isRetryable(e))
+                    throw e;
+
+                LOG.debug(String.format("Transaction failed with a serialization conflict. Retrying (%d of %d).", attempt + 1, retries));
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    public void run(Consumer<Connection> work) {
+        execute(conn -> {
+            work.accept(conn);
+            return null;
+        });
+    }
+
+    // The open transaction's connection for this context, or null. Closing it does not end the transaction.
+    static Connection boundConnection() {
+        Scope scope = CURRENT.get();
+        return scope != null? scope.connection: null;
+    }
+
+    // Runs the action once the open transaction commits or rolls back, or right away outside of one.
+    static void afterCompletion(Runnable action) {
+        Scope scope = CURRENT.get();
+        if(scope != null)
+            scope.afterCompletion.add(action);
+        else
+            action.run();
+    }
+
+    // ----- Private -----
+    private <R> R executeNew(Function<Connection, R> work) {
+        Connection conn = DBAccess.newConnection();
+        Scope scope;
+        try {
+            scope = new Scope(conn, isolation, readOnly);
+        } catch (SQLException e) {
+            close(conn);
+            throw new RuntimeException("Could not start transaction.", e);
+        }
+
+        CURRENT.set(scope);
+        try {
+            R result = work.apply(scope.connection);
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            rollback(conn, e);
+            throw new RuntimeException("Could not commit transaction.", e);
+        } catch (RuntimeException | Error e) {
+            rollback(conn, e);
+            throw e;
+        } finally {
+            CURRENT.remove();
+            scope.restore();
+            close(conn);
+            scope.completed();
+        }
+    }
+
+    private <R> R executeNested(Scope scope, Function<Connection, R> work) {
+        if(isolation != null && isolation != scope.isolation)
+            throw new IllegalStateException("Cannot change isolation level inside an open transaction.");
+        if(scope.readOnly && !readOnly)
+            throw new IllegalStateException("Cannot start a read-write transaction inside a read only one.");
+
+        Savepoint savepoint;
+        try {
+            savepoint = scope.physical.setSavepoint();
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not create savepoint.", e);
+        }
+
+        try {
+            R result = work.apply(scope.connection);
+            scope.physical.releaseSavepoint(savepoint);
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not release savepoint.", e);
+        } catch (RuntimeException | Error e) {
+            try {
+                scope.physical.rollback(savepoint);
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isRetryable(Throwable t) {
+        for(; t != null; t = t.getCause()) {
+            if(t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if("40001".equals(state) || "40P01".equals(state))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    //Exponential with jitter so conflicting transactions don't collide again in lock step.
+    private static void backoff(int attempt, RuntimeException cause) {
+        long delay = RETRY_BACKOFF_MS * (1L << Math.min(attempt, 6));
+        try {
+            Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    private static void rollback(Connection conn, Throwable cause) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private static void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            LOG.error("Could not close transaction connection.", e);
+        }
+    }
+
+    private static class Scope {
+        private final Connection physical;
+        private final Connection connection;
+        private final int isolation;
+        private final boolean readOnly;
+        private final int originalIsolation;
+        private final boolean originalReadOnly;
+        private final List<Runnable> afterCompletion = new ArrayList<>(1);
+
+        private Scope(Connection physical, Integer isolation, boolean readOnly) throws SQLException {
+            this.physical = physical;
+            this.originalIsolation = physical.getTransactionIsolation();
+            this.originalReadOnly = physical.isReadOnly();
+
+            if(isolation != null)
+                physical.setTransactionIsolation(isolation);
+            if(readOnly)
+                physical.setReadOnly(true);
+            physical.setAutoCommit(false);
+
+            this.isolation = physical.getTransactionIsolation();
+            this.readOnly = readOnly;
+            this.connection = managed(physical);
+        }
+
+        //Pooled connections can be handed back with these still set if the pool doesn't reset them.
+        private void restore() {
+            try {
+                physical.setAutoCommit(true);
+                if(readOnly != originalReadOnly)
+                    physical.setReadOnly(originalReadOnly);
+                if(isolation != originalIsolation)
+                    physical.setTransactionIsolation(originalIsolation);
+            } catch (SQLException e) {
+                LOG.error("Could not reset transaction connection.", e);
+            }
+        }
+
+        private void completed() {
+            for(Runnable action: afterCompletion) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Transaction completion action failed.", e);
+                }
+            }
+        }
+
+        // What the work and DAOs see. The template owns commit, rollback and close.
+        private static Connection managed(Connection physical) {
+            return (Connection) Proxy.newProxyInstance(TransactionTemplate.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                return null;
+                            case "commit":
+                            case "setTransactionIsolation":
+                                throw new IllegalStateException("Transaction is managed by TransactionTemplate.");
+                            case "rollback":
+                                if(args == null)
+                                    throw new IllegalStateException("Transaction is managed by TransactionTemplate.");
+                                break;
+                            case "setAutoCommit":
+                                if((Boolean) args[0])
+                                    throw new IllegalStateException("Transaction is managed by TransactionTemplate.");
+                                break;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                        }
+
+                        try {
+                            return method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
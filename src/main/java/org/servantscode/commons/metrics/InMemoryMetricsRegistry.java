@@ -0,0 +1,180 @@
+package org.servantscode.commons.metrics;
+
+import org.servantscode.commons.EnvProperty;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// Dependency free registry. Timers and value distributions are fixed bucket histograms, so recording never allocates
+// and percentiles are bucket upper bounds. Each metric keeps at most METRICS_MAX_KEYS series; later keys are folded into "other".
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+    public static final String OVERFLOW_KEY = "other";
+    private static final int MAX_KEYS = Integer.parseInt(EnvProperty.get("METRICS_MAX_KEYS", "500"));
+
+    private static final long[] TIME_BOUNDS_MICROS = {50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000, Long.MAX_VALUE};
+    private static final long[] VALUE_BOUNDS = {0, 1, 5, 10, 50, 100, 500, 1_000, 5_000, 10_000, 50_000, 100_000, Long.MAX_VALUE};
+
+    private final Map<String, Map<String, Histogram>> timers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Histogram>> values = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Supplier<Number>>> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordTime(String name, String key, long nanos) {
+        series(timers, name, key, () -> new Histogram(TIME_BOUNDS_MICROS)).record(NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void recordValue(String name, String key, long value) {
+        series(values, name, key, () -> new Histogram(VALUE_BOUNDS)).record(value);
+    }
+
+    @Override
+    public void increment(String name, String key) {
+        series(counters, name, key, LongAdder::new).increment();
+    }
+
+    @Override
+    public void gauge(String name, String key, Supplier<Number> value) {
+        gauges.computeIfAbsent(name, n -> new ConcurrentHashMap<>()).put(key, value);
+    }
+
+    public Histogram getTimer(String name, String key) { return lookup(timers, name, key); }
+    public Histogram getValues(String name, String key) { return lookup(values, name, key); }
+
+    public long getCount(String name, String key) {
+        LongAdder counter = lookup(counters, name, key);
+        return counter != null? counter.sum(): 0;
+    }
+
+    // Timer series are ordered by total time, so the statements that dominate database time come first.
+    @Override
+    public Map<String, Object> snapshot(int limit) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("timers", snapshotHistograms(timers, limit, 0.001));
+        snapshot.put("values", snapshotHistograms(values, limit, 1));
+
+        Map<String, Object> counterSnapshot = new LinkedHashMap<>();
+        counters.forEach((name, series) -> {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            series.entrySet().stream()
+                    .sorted(Comparator.comparing((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+                    .limit(limit)
+                    .forEach(e -> counts.put(e.getKey(), e.getValue().sum()));
+            counterSnapshot.put(name, counts);
+        });
+        snapshot.put("counters", counterSnapshot);
+
+        Map<String, Object> gaugeSnapshot = new LinkedHashMap<>();
+        gauges.forEach((name, series) -> {
+            Map<String, Number> current = new LinkedHashMap<>();
+            series.forEach((key, value) -> current.put(key, value.get()));
+            gaugeSnapshot.put(name, current);
+        });
+        snapshot.put("gauges", gaugeSnapshot);
+        return snapshot;
+    }
+
+    public void reset() {
+        timers.clear();
+        values.clear();
+        counters.clear();
+    }
+
+    public static class Histogram {
+        private final long[] bounds;
+        private final AtomicLongArray buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length);
+        }
+
+        public void record(long value) {
+            int bucket = 0;
+            while(value > bounds[bucket])
+                bucket++;
+
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getSum() { return sum.sum(); }
+        public long getMax() { return max.get(); }
+
+        // Upper bound of the bucket holding the given percentile, capped at the largest value seen.
+        public long percentile(double percentile) {
+            long total = getCount();
+            if(total == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for(int i = 0; i < bounds.length; i++) {
+                seen += buckets.get(i);
+                if(seen >= rank)
+                    return Math.min(bounds[i], getMax());
+            }
+            return getMax();
+        }
+
+        private Map<String, Object> toMap(double scale) {
+            long total = getCount();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", total);
+            values.put("total", getSum() * scale);
+            values.put("mean", total == 0? 0: getSum() * scale / total);
+            values.put("max", getMax() * scale);
+            values.put("p50", percentile(0.5) * scale);
+            values.put("p95", percentile(0.95) * scale);
+            values.put("p99", percentile(0.99) * scale);
+            return values;
+        }
+    }
+
+    // ----- Private -----
+    private static <V> V series(Map<String, Map<String, V>> metrics, String name, String key, Supplier<V> create) {
+        Map<String, V> series = metrics.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+        V value = series.get(key);
+        if(value != null)
+            return value;
+
+        if(series.size() >= MAX_KEYS)
+            key = OVERFLOW_KEY;
+        return series.computeIfAbsent(key, k -> create.get());
+    }
+
+    private static <V> V lookup(Map<String, Map<String, V>> metrics, String name, String key) {
+        Map<String, V> series = metrics.get(name);
+        return series != null? series.get(key): null;
+    }
+
+    // Timers are recorded in microseconds and reported in milliseconds.
+    private static Map<String, Object> snapshotHistograms(Map<String, Map<String, Histogram>> metrics, int limit, double scale) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        metrics.forEach((name, series) -> {
+            Map<String, Object> histograms = new LinkedHashMap<>();
+            series.entrySet().stream()
+                    .sorted(Comparator.comparing((Map.Entry<String, Histogram> e) -> e.getValue().getSum()).reversed())
+                    .limit(limit)
+                    .forEach(e -> histograms.put(e.getKey(), e.getValue().toMap(scale)));
+            snapshot.put(name, histograms);
+        });
+        return snapshot;
+    }
+}
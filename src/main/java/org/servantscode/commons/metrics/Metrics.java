@@ -0,0 +1,56 @@
+package org.servantscode.commons.metrics;
+
+import org.servantscode.commons.EnvProperty;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+// Holds the process wide MetricsRegistry. Defaults to an InMemoryMetricsRegistry; METRICS_ENABLED=false turns recording off.
+// Pool gauges are registered when the connection factory starts, so install another registry before the first database call.
+public class Metrics {
+    private static final MetricsRegistry DISABLED = new MetricsRegistry() {
+        @Override public void recordTime(String name, String key, long nanos) {}
+        @Override public void recordValue(String name, String key, long value) {}
+        @Override public void increment(String name, String key) {}
+        @Override public void gauge(String name, String key, Supplier<Number> value) {}
+    };
+
+    private static volatile MetricsRegistry registry =
+            Boolean.parseBoolean(EnvProperty.get("METRICS_ENABLED", "true"))? new InMemoryMetricsRegistry(): DISABLED;
+
+    // Shapes are derived from builder generated sql, so there are few distinct inputs. Bounded in case raw sql varies.
+    private static final int MAX_CACHED_SHAPES = 2048;
+    private static final Map<String, String> SHAPES = new ConcurrentHashMap<>();
+
+    private static final Pattern QUOTED = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER = Pattern.compile("(?<![\\w.$])\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern ROW_LIST = Pattern.compile("(\\([^()]*\\))(?:\\s*,\\s*\\1)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    public static MetricsRegistry get() { return registry; }
+
+    public static void setRegistry(MetricsRegistry newRegistry) {
+        registry = newRegistry != null? newRegistry: DISABLED;
+    }
+
+    // Groups executions of the same statement: literals become ?, and IN lists or multi-row VALUES
+    // of any length collapse to a single "?.." or "(..).." entry.
+    public static String shape(String sql) {
+        String shape = SHAPES.get(sql);
+        if(shape != null)
+            return shape;
+
+        shape = QUOTED.matcher(sql).replaceAll("?");
+        shape = NUMBER.matcher(shape).replaceAll("?");
+        shape = PARAMETER_LIST.matcher(shape).replaceAll("?..");
+        shape = ROW_LIST.matcher(shape).replaceAll("$1..");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+
+        if(SHAPES.size() < MAX_CACHED_SHAPES)
+            SHAPES.put(sql, shape);
+        return shape;
+    }
+}
@@ -0,0 +1,24 @@
+package org.servantscode.commons.metrics;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyMap;
+
+// Where instrumented code reports to. Each metric is a name plus a key that splits it into series
+// (a query shape, a pool name). Install an implementation with Metrics.setRegistry().
+public interface MetricsRegistry {
+    void recordTime(String name, String key, long nanos);
+
+    // A distribution of values other than time, e.g. rows returned.
+    void recordValue(String name, String key, long value);
+
+    void increment(String name, String key);
+
+    void gauge(String name, String key, Supplier<Number> value);
+
+    // Current values for the /metrics resource, at most limit series per metric. Registries exporting elsewhere can leave this empty.
+    default Map<String, Object> snapshot(int limit) {
+        return emptyMap();
+    }
+}
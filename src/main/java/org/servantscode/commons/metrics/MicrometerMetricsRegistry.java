@@ -0,0 +1,55 @@
+package org.servantscode.commons.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// Forwards to a Micrometer MeterRegistry. Keys become a "key" tag.
+// micrometer-core is not a dependency of this library; services using this adapter must provide it.
+// Query shapes can be numerous, so consider a MeterFilter.maximumAllowableTags on the registry.
+//
+//   Metrics.setRegistry(new MicrometerMetricsRegistry(meterRegistry));
+public class MicrometerMetricsRegistry implements MetricsRegistry {
+    private static final String KEY_TAG = "key";
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public MicrometerMetricsRegistry(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordTime(String name, String key, long nanos) {
+        timers.computeIfAbsent(name + '\0' + key, k -> Timer.builder(name).tag(KEY_TAG, key)
+                .publishPercentileHistogram().register(registry)).record(nanos, NANOSECONDS);
+    }
+
+    @Override
+    public void recordValue(String name, String key, long value) {
+        summaries.computeIfAbsent(name + '\0' + key, k -> DistributionSummary.builder(name).tag(KEY_TAG, key)
+                .register(registry)).record(value);
+    }
+
+    @Override
+    public void increment(String name, String key) {
+        counters.computeIfAbsent(name + '\0' + key, k -> Counter.builder(name).tag(KEY_TAG, key)
+                .register(registry)).increment();
+    }
+
+    @Override
+    public void gauge(String name, String key, Supplier<Number> value) {
+        //Gauges hold their source weakly by default; nothing else references the supplier.
+        Gauge.builder(name, value, v -> v.get().doubleValue()).tag(KEY_TAG, key).strongReference(true).register(registry);
+    }
+}
@@ -1,5 +1,6 @@
 package org.servantscode.commons.rest;
 
+import org.servantscode.commons.db.ReplicaRouting;
 import org.servantscode.commons.security.OrganizationContext;
 import org.servantscode.commons.security.PermissionManager;
 
@@ -17,5 +18,6 @@ public class ClearAuthFilter implements ContainerResponseFilter {
                        ContainerResponseContext responseContext) {
         PermissionManager.clearEnabledPermissions();
         OrganizationContext.clearEnabledOrganization();
+        ReplicaRouting.clear();
     }
 }
\ No newline at end of file
@@ -20,10 +20,8 @@ public class DefaultSessionVerifier implements SessionVerifier {
             Session activeSession = db.getSessionByToken(token);
             if (activeSession == null || activeSession.getExpiration().isBefore(ZonedDateTime.now())) {
                 throw new NotAuthorizedException("Not Authorized");
-            } else if (!activeSession.getIp().equals(callingIp)) {
+            } else if (!activeSession.getIp().equals(callingIp) && db.queueCallingIpUpdate(token, callingIp)) {
                 LOG.info("Encountered change in calling ip. %s => %s", activeSession.getIp(), callingIp);
-                activeSession.setIp(callingIp);
-                db.updateCallingIp(activeSession);
             }
         }
         return true;
@@ -0,0 +1,24 @@
+package org.servantscode.commons.rest;
+
+import org.servantscode.commons.metrics.Metrics;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import java.util.Map;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+// Current metrics from the installed registry. Query timers are listed by total time, heaviest first.
+// The registry spans every organization in the process, so only the system principal may read it.
+@Path("/metrics")
+public class MetricsSvc extends SCServiceBase {
+
+    @GET @Produces(APPLICATION_JSON)
+    public Map<String, Object> getMetrics(@QueryParam("limit") @DefaultValue("50") int limit) {
+        verifySystemAccess();
+        return Metrics.get().snapshot(limit);
+    }
+}
@@ -7,6 +7,7 @@ public class PaginatedResponse<T> {
     private int count;
     private int totalResults;
     private List<T> results;
+    private String continuationToken;
 
     public PaginatedResponse() {}
 
@@ -17,6 +18,11 @@ public class PaginatedResponse<T> {
         this.results = results;
     }
 
+    public PaginatedResponse(int start, int count, int totalResults, List<T> results, String continuationToken) {
+        this(start, count, totalResults, results);
+        this.continuationToken = continuationToken;
+    }
+
     // ----- Accesssors -----
     public int getStart() { return start; }
     public void setStart(int start) { this.start = start; }
@@ -30,6 +36,9 @@ public class PaginatedResponse<T> {
     public List<T> getResults() { return results; }
     public void setResults(List<T> results) { this.results = results; }
 
+    public String getContinuationToken() { return continuationToken; }
+    public void setContinuationToken(String continuationToken) { this.continuationToken = continuationToken; }
+
     @Override
     public String toString() {
         return "PaginatedResponse{" +
@@ -37,6 +46,7 @@ public class PaginatedResponse<T> {
                 ", count=" + count +
                 ", totalResults=" + totalResults +
                 ", results=" + results +
+                ", continuationToken=" + continuationToken +
                 '}';
     }
 }
@@ -1,6 +1,6 @@
 package org.servantscode.commons.rest;
 
-import org.servantscode.commons.ReflectionUtils;
+import org.servantscode.commons.ClassMetadata;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
@@ -9,8 +9,6 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import static org.servantscode.commons.ReflectionUtils.getGetters;
-
 public class ReportListStreamingOutput<T> implements StreamingOutput {
 
     final List<T> data;
@@ -34,12 +32,12 @@ public class ReportListStreamingOutput<T> implements StreamingOutput {
 
     // ----- Private -----
     private String generateHeaders(Class<?> clazz) {
-        return getGetters(clazz).stream().map(ReflectionUtils::getFieldName)
+        return ClassMetadata.of(clazz).getReadableFields().stream().map(ClassMetadata.FieldInfo::getName)
                 .collect(Collectors.joining(",")) + "\r\n";
     }
 
     private String generateRow(T d) {
-        return getGetters(d.getClass()).stream().map((m) -> ReflectionUtils.getFieldValue(m, d))
+        return ClassMetadata.of(d.getClass()).getReadableFields().stream().map(f -> String.valueOf(f.get(d)))
                 .collect(Collectors.joining(",")) + "\r\n";
     }
 }
@@ -33,6 +33,16 @@ public class SCServiceBase {
             throw new ForbiddenException("Requested action is not available");
     }
 
+    // For data shared by every organization in the process. Only the system principal (see SystemJWTGenerator) qualifies;
+    // an organization's users can't reach it whatever their permissions.
+    protected void verifySystemAccess() {
+        if(securityContext == null || !(securityContext.getUserPrincipal() instanceof SCPrincipal))
+            throw new NotAuthorizedException("Requested action required login");
+
+        if(!((SCPrincipal)securityContext.getUserPrincipal()).isSystem())
+            throw new ForbiddenException("Requested action is not available");
+    }
+
     protected int getUserId() {
         if(securityContext == null || securityContext.getUserPrincipal() == null)
             return -1;
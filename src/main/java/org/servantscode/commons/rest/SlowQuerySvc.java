@@ -0,0 +1,61 @@
+package org.servantscode.commons.rest;
+
+import org.servantscode.commons.db.SlowQueryLog;
+import org.servantscode.commons.db.SlowQueryLog.SlowQuery;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+// Recent slow statements from SlowQueryLog, newest first. The log holds every organization's statements and values,
+// so only the system principal may read or explain them.
+@Path("/metrics/slow-queries")
+public class SlowQuerySvc extends SCServiceBase {
+    private static final long EXPLAIN_WAIT_SECONDS = 90;
+
+    @GET @Produces(APPLICATION_JSON)
+    public List<SlowQuery> getSlowQueries(@QueryParam("limit") @DefaultValue("50") int limit) {
+        verifySystemAccess();
+        return SlowQueryLog.getRecent(limit);
+    }
+
+    @GET @Path("/{id}") @Produces(APPLICATION_JSON)
+    public SlowQuery getSlowQuery(@PathParam("id") long id) {
+        verifySystemAccess();
+        SlowQuery query = SlowQueryLog.get(id);
+        if(query == null)
+            throw new NotFoundException();
+        return query;
+    }
+
+    // Runs EXPLAIN (ANALYZE, BUFFERS) for the statement and returns it with its plan.
+    @POST @Path("/{id}/explain") @Produces(APPLICATION_JSON)
+    public SlowQuery explain(@PathParam("id") long id) {
+        verifySystemAccess();
+        if(SlowQueryLog.get(id) == null)
+            throw new NotFoundException();
+
+        try {
+            return SlowQueryLog.explain(id).get(EXPLAIN_WAIT_SECONDS, SECONDS);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for explain.", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RuntimeException("Could not explain query: " + id, e);
+        }
+    }
+}
@@ -2,11 +2,18 @@ package org.servantscode.commons.search;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.servantscode.commons.security.OrganizationContext;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -14,15 +21,32 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static java.util.Collections.nCopies;
+
 public class BatchInsertBuilder<T extends Object> extends SqlBuilder {
     private static Logger LOG = LogManager.getLogger(QueryBuilder.class);
 
     private enum BuilderState {START, INTO, VALUES, BATCHES, DONE };
 
+    // BATCH: one INSERT per row via addBatch (rewritten by pgjdbc only with reWriteBatchedInserts).
+    // MULTI_ROW: INSERT ... VALUES (...),(...) in chunks that stay under the bind parameter limit.
+    // COPY: streams rows as csv through COPY FROM STDIN. Postgres only.
+    public enum InsertMode {BATCH, MULTI_ROW, COPY};
+
+    // The wire protocol sends the parameter count as a 16 bit integer.
+    public static final int MAX_BIND_PARAMETERS = 32767;
+    public static final int DEFAULT_ROWS_PER_STATEMENT = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     private String table = null;
     private List<String> fields = new LinkedList<>();
     private List<Function<T, ? extends Object>> valueSource = new LinkedList<>();
     private List<T> batches = new LinkedList<>();
+    // One value function per field, in field order. Used by the MULTI_ROW and COPY modes.
+    private List<Function<T, ? extends Object>> columns = new ArrayList<>();
+
+    private InsertMode mode = InsertMode.BATCH;
+    private int rowsPerStatement = DEFAULT_ROWS_PER_STATEMENT;
 
     private BuilderState state = BuilderState.START;
 
@@ -38,6 +62,7 @@ public class BatchInsertBuilder<T extends Object> extends SqlBuilder {
         setState(BuilderState.VALUES);
         this.fields.add(field);
         this.values.add(value);
+        this.columns.add(item -> value);
         return this;
     }
 
@@ -45,23 +70,34 @@ public class BatchInsertBuilder<T extends Object> extends SqlBuilder {
         setState(BuilderState.VALUES);
         this.fields.add(field);
         this.valueSource.add(source);
+        this.columns.add(source);
         return this;
     }
 
     public BatchInsertBuilder<T> inOrg() {
-        setState(BuilderState.VALUES);
-        this.fields.add("org_id");
-        this.values.add(OrganizationContext.orgId());
-        return this;
+        return inOrg("org_id");
     }
 
     public BatchInsertBuilder<T> inOrg(String field) {
-        setState(BuilderState.VALUES);
-        this.fields.add(field);
-        this.values.add(OrganizationContext.orgId());
+        return value(field, OrganizationContext.orgId());
+    }
+
+    public BatchInsertBuilder<T> mode(InsertMode mode) {
+        if(state == BuilderState.DONE)
+            throw new IllegalStateException("Cannot change mode after " + state);
+        this.mode = mode;
+        return this;
+    }
+
+    public BatchInsertBuilder<T> rowsPerStatement(int rows) {
+        if(rows < 1)
+            throw new IllegalArgumentException("Rows per statement must be positive: " + rows);
+        this.rowsPerStatement = rows;
         return this;
     }
 
+    public InsertMode getMode() { return mode; }
+
     public BatchInsertBuilder<T> addBatch(T batch) {
         setState(BuilderState.BATCHES);
         this.batches.add(batch);
@@ -84,6 +120,33 @@ public class BatchInsertBuilder<T extends Object> extends SqlBuilder {
         return sql.toString();
     }
 
+    // Rows in each MULTI_ROW statement. Only the final chunk differs, so at most two statements get prepared.
+    public int getRowsPerStatement() {
+        return Math.max(1, Math.min(rowsPerStatement, MAX_BIND_PARAMETERS / Math.max(1, fields.size())));
+    }
+
+    public String getMultiRowSql(int rows) {
+        String row = "(" + String.join(", ", nCopies(fields.size(), "?")) + ")";
+        return "INSERT INTO " + table + " (" + String.join(", ", fields) + ") VALUES " + String.join(", ", nCopies(rows, row));
+    }
+
+    public String getCopySql() {
+        return "COPY " + table + " (" + String.join(", ", fields) + ") FROM STDIN WITH (FORMAT csv)";
+    }
+
+    // Runs the insert in the configured mode. Returns the number of rows inserted.
+    // The caller owns the connection and any transaction around it.
+    public int execute(Connection conn) throws SQLException {
+        switch (mode) {
+            case MULTI_ROW:
+                return executeMultiRow(conn);
+            case COPY:
+                return executeCopy(conn);
+            default:
+                return executeBatch(conn);
+        }
+    }
+
     @Override
     protected void fillStatement(PreparedStatement stmt, AtomicInteger pos) {
         AtomicInteger batchCount = new AtomicInteger();
@@ -104,7 +167,105 @@ public class BatchInsertBuilder<T extends Object> extends SqlBuilder {
         });
     }
 
+    // Appends one csv line. Values are converted as they would be for a prepared statement.
+    void encodeCopyRow(StringBuilder out, T item) {
+        for(int i=0; i<columns.size(); i++) {
+            if(i > 0)
+                out.append(',');
+            encodeCopyValue(out, columns.get(i).apply(item));
+        }
+        out.append('\n');
+    }
+
     // ----- Private -----
+    private int executeBatch(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(conn)) {
+            int rows = 0;
+            for(int count: stmt.executeBatch())
+                rows += count == PreparedStatement.SUCCESS_NO_INFO? 1: Math.max(count, 0);
+            return rows;
+        }
+    }
+
+    private int executeMultiRow(Connection conn) throws SQLException {
+        setState(BuilderState.DONE);
+        int chunkSize = getRowsPerStatement();
+        List<T> rows = new ArrayList<>(batches);
+        int inserted = 0;
+        for(int start=0; start<rows.size(); start+=chunkSize) {
+            List<T> chunk = rows.subList(start, Math.min(start + chunkSize, rows.size()));
+            String sql = getMultiRowSql(chunk.size());
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                AtomicInteger pos = new AtomicInteger(1);
+                for(T item: chunk) {
+                    for(Function<T, ? extends Object> column: columns)
+                        setValue(stmt, pos, column.apply(item));
+                }
+                inserted += stmt.executeUpdate();
+            } catch (SQLException e) {
+                LOG.error(String.format("Multi-row insert failed at row %d of %d.", start, rows.size()));
+                throw e;
+            }
+        }
+        return inserted;
+    }
+
+    private int executeCopy(Connection conn) throws SQLException {
+        setState(BuilderState.DONE);
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(getCopySql());
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            for(T item: batches) {
+                encodeCopyRow(buffer, item);
+                if(buffer.length() >= COPY_BUFFER_SIZE)
+                    writeCopyData(copyIn, buffer);
+            }
+            writeCopyData(copyIn, buffer);
+            return (int) copyIn.endCopy();
+        } finally {
+            if(copyIn.isActive())
+                copyIn.cancelCopy();
+        }
+    }
+
+    private void writeCopyData(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if(buffer.length() == 0)
+            return;
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    // csv: an unquoted empty field is NULL; everything else is quoted so empty strings survive.
+    private void encodeCopyValue(StringBuilder out, Object value) {
+        if(value instanceof SqlBuilder || value instanceof InputStream)
+            throw new IllegalArgumentException("COPY does not support value type: " + value.getClass().getSimpleName());
+
+        // Rendered in the session zone (pgjdbc sets it to the jvm zone), as setTimestamp would.
+        if(value instanceof ZonedDateTime)
+            value = ((ZonedDateTime) value).withZoneSameInstant(ZoneId.systemDefault()).toOffsetDateTime();
+        else
+            value = sqlize(value);
+
+        if(value == null)
+            return;
+
+        if(value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+            return;
+        }
+
+        String text = value.toString();
+        out.append('"');
+        for(int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            if(c == '"')
+                out.append('"');
+            out.append(c);
+        }
+        out.append('"');
+    }
+
     private void setState(BuilderState nextState) {
         if(nextState.compareTo(state) < 0)
             throw new IllegalStateException("Cannot " + nextState + " after " + state);
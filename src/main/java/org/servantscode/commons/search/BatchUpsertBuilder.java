@@ -0,0 +1,222 @@
+package org.servantscode.commons.search;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.search.BatchInsertBuilder.InsertMode;
+import org.servantscode.commons.security.OrganizationContext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.servantscode.commons.search.BatchInsertBuilder.DEFAULT_ROWS_PER_STATEMENT;
+import static org.servantscode.commons.search.BatchInsertBuilder.MAX_BIND_PARAMETERS;
+
+// Batched INSERT ... ON CONFLICT. Supports the BATCH and MULTI_ROW insert modes; COPY cannot resolve conflicts.
+public class BatchUpsertBuilder<T extends Object> extends SqlBuilder {
+    private static Logger LOG = LogManager.getLogger(BatchUpsertBuilder.class);
+
+    private enum BuilderState {START, INTO, VALUES, CONFLICT, UPDATE, BATCHES, DONE };
+
+    private String table = null;
+    private List<String> fields = new ArrayList<>();
+    private List<Function<T, ? extends Object>> columns = new ArrayList<>();
+    private ConflictClause conflict = new ConflictClause();
+    private List<T> batches = new ArrayList<>();
+
+    private InsertMode mode = InsertMode.BATCH;
+    private int rowsPerStatement = DEFAULT_ROWS_PER_STATEMENT;
+
+    private BuilderState state = BuilderState.START;
+
+    public BatchUpsertBuilder() {}
+
+    public BatchUpsertBuilder<T> into(String table) {
+        setState(BuilderState.INTO);
+        this.table = table;
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> value(String field, Object value) {
+        return valueSource(field, item -> value);
+    }
+
+    public BatchUpsertBuilder<T> valueSource(String field, Function<T, ? extends Object> source) {
+        setState(BuilderState.VALUES);
+        this.fields.add(field);
+        this.columns.add(source);
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> inOrg() {
+        return inOrg("org_id");
+    }
+
+    public BatchUpsertBuilder<T> inOrg(String field) {
+        return value(field, OrganizationContext.orgId());
+    }
+
+    public BatchUpsertBuilder<T> onConflict(String... columns) {
+        setState(BuilderState.CONFLICT);
+        conflict.onConflict(columns);
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> onConstraint(String constraint) {
+        setState(BuilderState.CONFLICT);
+        conflict.onConstraint(constraint);
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> doNothing() {
+        setState(BuilderState.UPDATE);
+        conflict.doNothing();
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> updateExcluded(String... fields) {
+        setState(BuilderState.UPDATE);
+        conflict.updateExcluded(fields);
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> addBatch(T batch) {
+        setState(BuilderState.BATCHES);
+        this.batches.add(batch);
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> addBatches(List<T> batches) {
+        setState(BuilderState.BATCHES);
+        this.batches.addAll(batches);
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> mode(InsertMode mode) {
+        if(mode == InsertMode.COPY)
+            throw new IllegalArgumentException("COPY cannot be used for upserts.");
+        if(state == BuilderState.DONE)
+            throw new IllegalStateException("Cannot change mode after " + state);
+        this.mode = mode;
+        return this;
+    }
+
+    public BatchUpsertBuilder<T> rowsPerStatement(int rows) {
+        if(rows < 1)
+            throw new IllegalArgumentException("Rows per statement must be positive: " + rows);
+        this.rowsPerStatement = rows;
+        return this;
+    }
+
+    public InsertMode getMode() { return mode; }
+
+    public int getRowsPerStatement() {
+        return Math.max(1, Math.min(rowsPerStatement, MAX_BIND_PARAMETERS / Math.max(1, fields.size())));
+    }
+
+    @Override
+    public String getSql() {
+        return getMultiRowSql(1);
+    }
+
+    public String getMultiRowSql(int rows) {
+        setState(BuilderState.DONE);
+        String row = "(" + String.join(", ", nCopies(fields.size(), "?")) + ")";
+        return "INSERT INTO " + table + " (" + String.join(", ", fields) + ") VALUES " + String.join(", ", nCopies(rows, row)) +
+                conflict.getSql(fields);
+    }
+
+    // Runs the upsert in the configured mode. Returns the number of rows inserted or updated.
+    public int execute(Connection conn) throws SQLException {
+        return mode == InsertMode.MULTI_ROW? executeMultiRow(conn): executeBatch(conn);
+    }
+
+    @Override
+    protected void fillStatement(PreparedStatement stmt, AtomicInteger pos) {
+        int startPos = pos.get();
+        int batchCount = 0;
+        for(T item: batches) {
+            pos.set(startPos);
+            for(Function<T, ? extends Object> column: columns)
+                setValue(stmt, pos, column.apply(item));
+            try {
+                stmt.addBatch();
+            } catch (SQLException e) {
+                throw new RuntimeException(String.format("Could not addBatch: %s at pos: %d\nsql: %s", batchCount, pos.get() - 1, getSql()), e);
+            }
+            batchCount++;
+        }
+    }
+
+    // ----- Private -----
+    private int executeBatch(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(conn)) {
+            int rows = 0;
+            for(int count: stmt.executeBatch())
+                rows += count == PreparedStatement.SUCCESS_NO_INFO? 1: Math.max(count, 0);
+            return rows;
+        }
+    }
+
+    private int executeMultiRow(Connection conn) throws SQLException {
+        int chunkSize = getRowsPerStatement();
+        List<T> rows = distinctRows();
+        int upserted = 0;
+        for(int start=0; start<rows.size(); start+=chunkSize) {
+            List<T> chunk = rows.subList(start, Math.min(start + chunkSize, rows.size()));
+            try (PreparedStatement stmt = conn.prepareStatement(getMultiRowSql(chunk.size()))) {
+                AtomicInteger pos = new AtomicInteger(1);
+                for(T item: chunk) {
+                    for(Function<T, ? extends Object> column: columns)
+                        setValue(stmt, pos, column.apply(item));
+                }
+                upserted += stmt.executeUpdate();
+            } catch (SQLException e) {
+                LOG.error(String.format("Multi-row upsert failed at row %d of %d.", start, rows.size()));
+                throw e;
+            }
+        }
+        return upserted;
+    }
+
+    // A single statement may not touch the same row twice, so rows sharing a conflict target are collapsed.
+    // DO UPDATE keeps the last row, DO NOTHING the first, matching what BATCH mode would leave behind.
+    private List<T> distinctRows() {
+        List<String> targets = conflict.getTargets();
+        if(targets.isEmpty())
+            return batches;
+
+        List<Integer> keyColumns = targets.stream().map(fields::indexOf).filter(i -> i >= 0).collect(toList());
+        if(keyColumns.size() != targets.size())
+            return batches;
+
+        boolean keepFirst = conflict.isDoNothing(fields);
+        Map<List<Object>, T> rows = new LinkedHashMap<>();
+        for(T item: batches) {
+            List<Object> key = keyColumns.stream().map(i -> (Object) columns.get(i).apply(item)).collect(toList());
+            if(key.contains(null))
+                key = singletonList(new Object()); // NULLs never conflict
+            if(keepFirst)
+                rows.putIfAbsent(key, item);
+            else
+                rows.put(key, item);
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    private void setState(BuilderState nextState) {
+        if(nextState.compareTo(state) < 0)
+            throw new IllegalStateException("Cannot " + nextState + " after " + state);
+
+        state = nextState;
+    }
+}
@@ -0,0 +1,65 @@
+package org.servantscode.commons.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+
+// ON CONFLICT handling shared by the upsert builders.
+// With a conflict target and no explicit updates, every inserted field outside the target is updated from EXCLUDED.
+class ConflictClause {
+    private final List<String> targets = new ArrayList<>();
+    private final List<String> updates = new ArrayList<>();
+    private String constraint = null;
+    private boolean doNothing = false;
+
+    void onConflict(String... columns) {
+        targets.addAll(asList(columns));
+    }
+
+    void onConstraint(String constraint) {
+        this.constraint = constraint;
+    }
+
+    void doNothing() {
+        this.doNothing = true;
+    }
+
+    void updateExcluded(String... fields) {
+        for(String field: fields)
+            updates.add(field + "=EXCLUDED." + field);
+    }
+
+    void update(String setClause) {
+        updates.add(setClause);
+    }
+
+    List<String> getTargets() { return targets; }
+
+    boolean isDoNothing(List<String> fields) {
+        return doNothing || (updates.isEmpty() && defaultUpdates(fields).isEmpty());
+    }
+
+    String getSql(List<String> fields) {
+        StringBuilder sql = new StringBuilder(" ON CONFLICT");
+        if(constraint != null)
+            sql.append(" ON CONSTRAINT ").append(constraint);
+        else if(!targets.isEmpty())
+            sql.append(" (").append(String.join(", ", targets)).append(")");
+
+        if(isDoNothing(fields))
+            return sql.append(" DO NOTHING").toString();
+
+        if(constraint == null && targets.isEmpty())
+            throw new IllegalStateException("ON CONFLICT DO UPDATE requires a conflict target.");
+
+        List<String> sets = updates.isEmpty()? defaultUpdates(fields): updates;
+        return sql.append(" DO UPDATE SET ").append(String.join(", ", sets)).toString();
+    }
+
+    // ----- Private -----
+    private List<String> defaultUpdates(List<String> fields) {
+        return fields.stream().filter(f -> !targets.contains(f)).map(f -> f + "=EXCLUDED." + f).collect(toList());
+    }
+}
@@ -3,6 +3,7 @@ package org.servantscode.commons.search;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -11,9 +12,10 @@ import java.util.stream.Collectors;
 public class DeleteBuilder extends FilterableBuilder<DeleteBuilder> {
     private static Logger LOG = LogManager.getLogger(DeleteBuilder.class);
 
-    private enum BuilderState { START, TABLE, WHERE, DONE };
+    private enum BuilderState { START, TABLE, WHERE, RETURNING, DONE };
 
     private String table = null;
+    private List<String> returning = new LinkedList<>();
 
     private BuilderState state = BuilderState.START;
 
@@ -25,6 +27,14 @@ public class DeleteBuilder extends FilterableBuilder<DeleteBuilder> {
         return this;
     }
 
+    public DeleteBuilder returning(String... columns) {
+        setState(BuilderState.RETURNING);
+        this.returning.addAll(Arrays.asList(columns));
+        return this;
+    }
+
+    public boolean hasReturning() { return !returning.isEmpty(); }
+
     @Override
     protected void startFiltering() {
         setState(BuilderState.WHERE);
@@ -46,6 +56,8 @@ public class DeleteBuilder extends FilterableBuilder<DeleteBuilder> {
                .append(")");
         if(!wheres.isEmpty())
             sql.append(" WHERE ").append(String.join(" AND ", wheres));
+        if(!returning.isEmpty())
+            sql.append(" RETURNING ").append(String.join(", ", returning));
 
         return sql.toString();
     }
@@ -2,6 +2,7 @@ package org.servantscode.commons.search;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.function.Function;
 
 public class FieldTransformer {
@@ -48,6 +49,8 @@ public class FieldTransformer {
             return outputFieldName;
         }
 
+        public boolean hasValueTransform() { return valueTransform != null; }
+
         public Object transform(String value) {
             return valueTransform != null? valueTransform.apply(value): value;
         }
@@ -64,6 +67,7 @@ public class FieldTransformer {
     }
 
     private final HashMap<String, Transformation> fieldTransforms;
+    private volatile String signature;
 
     public FieldTransformer() {
         fieldTransforms = new HashMap<>(8);
@@ -85,27 +89,50 @@ public class FieldTransformer {
         return transformation != null? transformation.fieldName(): fieldName;
     }
 
+    // Describes every mapping that affects parsed output, for use as a cache key.
+    // Value transforms are opaque functions; searches that use them are not cached, so they are only marked.
+    public String getSignature() {
+        String current = signature;
+        if(current == null) {
+            StringBuilder sb = new StringBuilder();
+            new TreeMap<>(fieldTransforms).forEach((field, t) ->
+                    sb.append(field).append('=').append(t.outputFieldName)
+                      .append('|').append(t.fieldType != null? t.fieldType.getName(): "")
+                      .append('|').append(t.isCustom? t.customSql: "")
+                      .append('|').append(t.hasValueTransform()? "fn": "")
+                      .append(';'));
+            signature = current = sb.toString();
+        }
+        return current;
+    }
+
     public void put(String inputField, String outputField) {
+        signature = null;
         fieldTransforms.put(inputField, new Transformation(inputField, outputField));
     }
 
     public <T extends Object> void  put(String inputField, String outputField, Function<String, T> transformFunction) {
+        signature = null;
         fieldTransforms.put(inputField, new Transformation<T>(inputField, outputField, transformFunction));
     }
 
     public <T extends Object> void  put(String inputField, String outputField, Class<?> fieldType, Function<String, T> transformFunction) {
+        signature = null;
         fieldTransforms.put(inputField, new Transformation<T>(inputField, outputField, fieldType, transformFunction));
     }
 
     public <T extends Object> void  put(String inputField, String outputField, Class<?> fieldType) {
+        signature = null;
         fieldTransforms.put(inputField, new Transformation<T>(inputField, outputField, fieldType));
     }
 
     public <T extends Object> void putCustom(String inputField, String sql) {
+        signature = null;
         fieldTransforms.put(inputField, new Transformation<T>(inputField, true, sql, null));
     }
 
     public <T extends Object> void putCustom(String inputField, String sql, Function<String, T> transformFunction) {
+        signature = null;
         fieldTransforms.put(inputField, new Transformation<T>(inputField, true, sql, transformFunction));
     }
 
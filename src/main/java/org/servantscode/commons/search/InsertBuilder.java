@@ -14,13 +14,14 @@ import static org.servantscode.commons.StringUtils.isSet;
 public class InsertBuilder extends SqlBuilder {
     private static Logger LOG = LogManager.getLogger(QueryBuilder.class);
 
-    private enum BuilderState {START, INTO, FIELDS, VALUES, SELECT, ON, DONE };
+    private enum BuilderState {START, INTO, FIELDS, VALUES, SELECT, ON, RETURNING, DONE };
 
     private String table = null;
     private List<String> fields = new LinkedList<>();
     private String selectStatement = null;
 
     private String conflictResolution = null;
+    private List<String> returning = new LinkedList<>();
 
     private BuilderState state = BuilderState.START;
 
@@ -76,6 +77,14 @@ public class InsertBuilder extends SqlBuilder {
         return this;
     }
 
+    public InsertBuilder returning(String... columns) {
+        setState(BuilderState.RETURNING);
+        this.returning.addAll(asList(columns));
+        return this;
+    }
+
+    public boolean hasReturning() { return !returning.isEmpty(); }
+
     @Override
     public String getSql() {
         setState(BuilderState.DONE);
@@ -89,6 +98,8 @@ public class InsertBuilder extends SqlBuilder {
 
         if(isSet(conflictResolution))
             sql.append(" ON CONFLICT " + conflictResolution);
+        if(!returning.isEmpty())
+            sql.append(" RETURNING ").append(String.join(", ", returning));
         return sql.toString();
     }
 
@@ -0,0 +1,117 @@
+package org.servantscode.commons.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+// Opaque continuation token for keyset pagination. Holds the sort key values of the last row returned.
+// Values keep their type so they bind to the database as they were read.
+public class PageToken {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    public static String encode(Object... lastSeen) {
+        List<Object> values = new ArrayList<>(lastSeen.length);
+        for(Object value: lastSeen)
+            values.add(value);
+        return encode(values);
+    }
+
+    public static String encode(List<Object> lastSeen) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(lastSeen.size());
+            for(Object value: lastSeen)
+                writeValue(out, value);
+            out.flush();
+            return ENCODER.encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not encode page token.", e);
+        }
+    }
+
+    // Token for the page after rows, built from the sort values of the last row. Null once a short page shows there
+    // are no more rows. sortValues must return the values in the order of the sort fields.
+    public static <T> String next(List<T> rows, int count, Function<? super T, List<Object>> sortValues) {
+        if(rows.isEmpty() || rows.size() < count)
+            return null;
+
+        List<Object> lastSeen = sortValues.apply(rows.get(rows.size() - 1));
+        if(lastSeen.contains(null))
+            throw new IllegalArgumentException("Keyset pagination requires NOT NULL sort fields. Values: " + lastSeen);
+        return encode(lastSeen);
+    }
+
+    public static List<Object> decode(String token) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(DECODER.decode(token)));
+            int count = in.readUnsignedByte();
+            List<Object> values = new ArrayList<>(count);
+            for(int i=0; i<count; i++)
+                values.add(readValue(in));
+            return values;
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page token: " + token, e);
+        }
+    }
+
+    // ----- Private -----
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if(value == null) {
+            out.writeByte('n');
+        } else if(value instanceof String || value instanceof Enum) {
+            out.writeByte('s');
+            out.writeUTF(value.toString());
+        } else if(value instanceof Integer) {
+            out.writeByte('i');
+            out.writeInt((Integer) value);
+        } else if(value instanceof Long) {
+            out.writeByte('l');
+            out.writeLong((Long) value);
+        } else if(value instanceof Double || value instanceof Float) {
+            out.writeByte('d');
+            out.writeDouble(((Number) value).doubleValue());
+        } else if(value instanceof BigDecimal) {
+            out.writeByte('m');
+            out.writeUTF(value.toString());
+        } else if(value instanceof Boolean) {
+            out.writeByte('b');
+            out.writeBoolean((Boolean) value);
+        } else if(value instanceof LocalDate) {
+            out.writeByte('D');
+            out.writeUTF(value.toString());
+        } else if(value instanceof ZonedDateTime) {
+            out.writeByte('T');
+            out.writeUTF(value.toString());
+        } else {
+            throw new IllegalArgumentException("Unsupported page token value type: " + value.getClass().getSimpleName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case 'n': return null;
+            case 's': return in.readUTF();
+            case 'i': return in.readInt();
+            case 'l': return in.readLong();
+            case 'd': return in.readDouble();
+            case 'm': return new BigDecimal(in.readUTF());
+            case 'b': return in.readBoolean();
+            case 'D': return LocalDate.parse(in.readUTF());
+            case 'T': return ZonedDateTime.parse(in.readUTF());
+            default:
+                throw new IllegalArgumentException("Unknown page token value type: " + (char) type);
+        }
+    }
+}
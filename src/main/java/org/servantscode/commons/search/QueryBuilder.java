@@ -2,9 +2,9 @@ package org.servantscode.commons.search;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -18,21 +18,32 @@ public class QueryBuilder extends FilterableBuilder<QueryBuilder> {
     private enum BuilderState {START, WITH_CTE, SELECT, FROM, JOIN, WHERE, GROUP, SORT, LIMIT, OFFSET, DONE};
 
     private String with = null;
-    private List<String> selections = new LinkedList<>();
-    private List<String> tables = new LinkedList<>();
-    private List<String> joins = new LinkedList<>();
+    private List<String> selections = new ArrayList<>();
+    private List<String> tables = new ArrayList<>(2);
+    private List<String> joins = new ArrayList<>(4);
 
-    private List<String> groupBy = new LinkedList<>();
+    private List<String> groupBy = new ArrayList<>(2);
     private String sort;
+    private String seek;
     private boolean limit;
     private boolean offset;
     private boolean distinct;
 
     private BuilderState state = BuilderState.START;
 
+    //Once generated the query can no longer change, so the sql is only built once.
+    private String generatedSql = null;
+
     public QueryBuilder() {
     }
 
+    //Used by QueryTemplate to bind new values to already generated sql.
+    QueryBuilder(String sql, List<Object> values) {
+        this.generatedSql = sql;
+        this.values.addAll(values);
+        this.state = BuilderState.DONE;
+    }
+
 
     public QueryBuilder withCte(String with, Object... values) {
         return withCte(with, asList(values));
@@ -148,10 +159,37 @@ public class QueryBuilder extends FilterableBuilder<QueryBuilder> {
         return this;
     }
 
+    // Produces a new, finished query that explains this one. Options are passed through, e.g. "ANALYZE, BUFFERS".
+    public QueryBuilder explain() {
+        return explain(null);
+    }
+
+    public QueryBuilder explain(String options) {
+        String prefix = isSet(options)? "EXPLAIN (" + options + ") ": "EXPLAIN ";
+        return new QueryBuilder(prefix + getSql(), values);
+    }
+
     public QueryBuilder page(String sort, int start, int count) {
         return this.sort(sort).limit(count).offset(start);
     }
 
+    // Keyset (seek) pagination. Rather than skipping rows with OFFSET, only rows sorting after the last seen
+    // row are selected. The sort should end in a unique column (such as id) so that the position is unambiguous.
+    // Sort columns must be NOT NULL: a NULL never compares greater or less, so those rows could not be paged to.
+    // An empty continuation token selects the first page. PageToken.next() builds the token for the following page.
+    public QueryBuilder pageAfter(String sort, String continuationToken, int count) {
+        return pageAfter(sort, isSet(continuationToken)? PageToken.decode(continuationToken): null, count);
+    }
+
+    public QueryBuilder pageAfter(String sort, List<Object> lastSeen, int count) {
+        if(lastSeen != null && !lastSeen.isEmpty()) {
+            startFiltering();
+            String translatedSort = (searchParser != null)? searchParser.translateSort(sort): sort;
+            this.seek = seekClause(translatedSort, lastSeen);
+        }
+        return this.sort(sort).limit(count);
+    }
+
     public QueryBuilder sort(String sort) {
         setState(BuilderState.SORT);
         this.sort = (searchParser != null)? searchParser.translateSort(sort): sort;
@@ -179,6 +217,9 @@ public class QueryBuilder extends FilterableBuilder<QueryBuilder> {
 
     public String getSql() {
         setState(BuilderState.DONE);
+        if(generatedSql != null)
+            return generatedSql;
+
         if(!wheres.isEmpty() && !ors.isEmpty()) {
             ors.add(wheres);
             wheres = Collections.emptyList();
@@ -194,12 +235,15 @@ public class QueryBuilder extends FilterableBuilder<QueryBuilder> {
         sql.append(" FROM ").append(String.join(", ", tables));
         if(!joins.isEmpty())
             sql.append(" ").append(String.join(" ", joins));
+        String filter = null;
         if(!ors.isEmpty())
-            sql.append(" WHERE (")
-               .append(ors.stream().map(wheres -> String.join(" AND ", wheres)).collect(Collectors.joining(") OR (")))
-               .append(")");
+            filter = "(" + ors.stream().map(wheres -> String.join(" AND ", wheres)).collect(Collectors.joining(") OR (")) + ")";
         if(!wheres.isEmpty())
-            sql.append(" WHERE ").append(String.join(" AND ", wheres));
+            filter = String.join(" AND ", wheres);
+        if(isSet(seek))
+            filter = (filter == null)? seek: (ors.isEmpty()? filter: "(" + filter + ")") + " AND " + seek;
+        if(filter != null)
+            sql.append(" WHERE ").append(filter);
         if(!groupBy.isEmpty())
             sql.append(" GROUP BY ").append(String.join(", ", groupBy));
         if(isSet(sort))
@@ -208,10 +252,50 @@ public class QueryBuilder extends FilterableBuilder<QueryBuilder> {
             sql.append(" LIMIT ?");
         if(offset)
             sql.append(" OFFSET ?");
-        return sql.toString();
+        this.generatedSql = sql.toString();
+        return generatedSql;
     }
 
     // ----- Private -----
+    // Uses a row comparison, (a, b) > (?, ?), when all columns sort the same direction. Otherwise expands to
+    // ((a>?) OR (a=? AND b<?)), which repeats the leading values.
+    private String seekClause(String translatedSort, List<Object> lastSeen) {
+        String[] sortFields = translatedSort.split(",");
+        if(sortFields.length != lastSeen.size())
+            throw new IllegalArgumentException(String.format("Keyset pagination requires a value for each sort field. Sort: %s, values: %d", translatedSort, lastSeen.size()));
+        if(lastSeen.contains(null))
+            throw new IllegalArgumentException("Keyset pagination requires NOT NULL sort fields. Sort: " + translatedSort + ", values: " + lastSeen);
+
+        String[] columns = new String[sortFields.length];
+        boolean[] descending = new boolean[sortFields.length];
+        boolean uniform = true;
+        for(int i=0; i<sortFields.length; i++) {
+            String[] sortCmd = sortFields[i].trim().split("\\s+");
+            columns[i] = sortCmd[0];
+            descending[i] = sortCmd.length > 1 && sortCmd[1].equalsIgnoreCase(SearchParser.DESC);
+            uniform &= descending[i] == descending[0];
+        }
+
+        if(uniform) {
+            this.values.addAll(lastSeen);
+            return String.format("(%s) %s (%s)", String.join(", ", columns), descending[0]? "<": ">",
+                                 String.join(", ", Collections.nCopies(columns.length, "?")));
+        }
+
+        List<String> branches = new ArrayList<>(columns.length);
+        for(int i=0; i<columns.length; i++) {
+            List<String> branch = new ArrayList<>(i + 1);
+            for(int j=0; j<i; j++) {
+                branch.add(columns[j] + "=?");
+                this.values.add(lastSeen.get(j));
+            }
+            branch.add(columns[i] + (descending[i]? "<?": ">?"));
+            this.values.add(lastSeen.get(i));
+            branches.add(String.join(" AND ", branch));
+        }
+        return "((" + String.join(") OR (", branches) + "))";
+    }
+
     private void setState(BuilderState nextState) {
         if(nextState.compareTo(state) < 0)
             throw new IllegalStateException("Cannot " + nextState + " after " + state);
@@ -0,0 +1,46 @@
+package org.servantscode.commons.search;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+// A reusable query shape. The sql is generated once from the captured QueryBuilder;
+// each execution only binds a new set of values. Templates are immutable and safe to share.
+//
+// Values are bound positionally, one per '?' in the generated sql, including those of any sub-queries.
+public class QueryTemplate {
+    private final String sql;
+    private final int parameterCount;
+
+    public QueryTemplate(QueryBuilder shape) {
+        this.sql = shape.getSql();
+        this.parameterCount = countParameters(shape);
+    }
+
+    public static QueryTemplate of(QueryBuilder shape) {
+        return new QueryTemplate(shape);
+    }
+
+    public QueryBuilder bind(Object... values) {
+        return bind(asList(values));
+    }
+
+    public QueryBuilder bind(List<Object> values) {
+        if(values.size() != parameterCount)
+            throw new IllegalArgumentException(String.format("Query template requires %d values. %d provided.\nsql: %s", parameterCount, values.size(), sql));
+
+        return new QueryBuilder(sql, values);
+    }
+
+    public String getSql() { return sql; }
+
+    public int getParameterCount() { return parameterCount; }
+
+    // ----- Private -----
+    private static int countParameters(SqlBuilder builder) {
+        int count = 0;
+        for(Object value: builder.values)
+            count += (value instanceof SqlBuilder)? countParameters((SqlBuilder) value): 1;
+        return count;
+    }
+}
@@ -334,6 +334,13 @@ public class Search {
             this.clauses.addAll(asList(clauses));
         }
 
+        // Copies the tree structure. Leaf clauses are immutable and shared.
+        public CompoundClause(CompoundClause other) {
+            this.type = other.type;
+            for(SearchClause clause: other.clauses)
+                this.clauses.add(clause instanceof CompoundClause? new CompoundClause((CompoundClause) clause): clause);
+        }
+
         public void setType(ClauseType type) {
             this.type = type;
         }
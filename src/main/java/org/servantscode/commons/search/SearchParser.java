@@ -2,8 +2,10 @@ package org.servantscode.commons.search;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
 import org.servantscode.commons.ReflectionUtils;
 import org.servantscode.commons.StringUtils;
+import org.servantscode.commons.cache.ExpiringCache;
 import org.servantscode.commons.search.FieldTransformer.Transformation;
 import org.servantscode.commons.search.Search.CompoundClause;
 import org.servantscode.commons.search.Search.CompoundClause.ClauseType;
@@ -20,6 +22,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 import static org.servantscode.commons.StringUtils.*;
@@ -30,6 +33,13 @@ public class SearchParser<T> {
     public static final String DESC = "DESC";
     public static final String ASC = "ASC";
 
+    // Parsed clause trees, keyed by everything that shapes the output (see cacheKey).
+    // Cached trees are never handed out directly; callers get a copy they are free to modify.
+    // A null entry records that the search can't be cached, so a hit never tokenizes the string again.
+    private static final ExpiringCache<String, CompoundClause> SEARCH_CACHE =
+            new ExpiringCache<>(Integer.parseInt(EnvProperty.get("SEARCH_CACHE_SIZE", "1000")),
+                                SECONDS.toMillis(Long.parseLong(EnvProperty.get("SEARCH_CACHE_TTL", "3600"))));
+
     private final Class<T> clazz;
     private final String defaultField;
     private final FieldTransformer transformer;
@@ -57,15 +67,15 @@ public class SearchParser<T> {
             return null;
 
         LOG.trace("Parsing search string: " + searchString);
-        String[] clauseStrings = parseText(searchString);
-
-        CompoundClause andClause = createCompoundClause(clauseStrings, new AtomicInteger(0));
+        CompoundClause cached = SEARCH_CACHE.get(cacheKey(searchString), key -> parseIfCacheable(searchString));
 
         Search search = new Search();
-        search.addClause(andClause);
+        search.addClause(cached != null? new CompoundClause(cached): parseClauses(parseText(searchString)));
         return search;
     }
 
+    public static ExpiringCache<String, CompoundClause> getSearchCache() { return SEARCH_CACHE; }
+
 
     public String translateSort(String sortString) {
         if(isEmpty(sortString))
@@ -86,6 +96,39 @@ public class SearchParser<T> {
         return updatedSort;
     }
 
+    private CompoundClause parseClauses(String[] clauseStrings) {
+        return createCompoundClause(clauseStrings, new AtomicInteger(0));
+    }
+
+    private CompoundClause parseIfCacheable(String searchString) {
+        String[] clauseStrings = parseText(searchString);
+        return isCacheable(clauseStrings)? parseClauses(clauseStrings): null;
+    }
+
+    // Value transforms are arbitrary functions (they may read the clock or request state), so their output is never reused.
+    private boolean isCacheable(String[] clauseStrings) {
+        for(String token: clauseStrings) {
+            switch (token) {
+                case "(":
+                case ")":
+                case "AND":
+                case "OR":
+                    continue;
+                default:
+                    String[] searchBits = token.split(":", 2);
+                    if(transformer.get(searchBits.length > 1? searchBits[0]: defaultField).hasValueTransform())
+                        return false;
+            }
+        }
+        return true;
+    }
+
+    // Time ranges are resolved in the system zone, so it is part of the key.
+    private String cacheKey(String searchString) {
+        return String.join("\u0000", clazz.getName(), defaultField, transformer.getSignature(),
+                ZoneId.systemDefault().getId(), searchString);
+    }
+
     private CompoundClause createCompoundClause(String[] clauseStrings, AtomicInteger loc) {
         CompoundClause clause = new CompoundClause();
         ClauseType type = null;
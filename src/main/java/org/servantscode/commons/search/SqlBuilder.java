@@ -3,6 +3,7 @@ package org.servantscode.commons.search;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.servantscode.commons.db.DBAccess;
+import org.servantscode.commons.db.StatementCacheStats;
 
 import java.io.InputStream;
 import java.sql.Connection;
@@ -11,7 +12,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -20,7 +21,7 @@ import static java.sql.Statement.RETURN_GENERATED_KEYS;
 public abstract class SqlBuilder {
     private static Logger LOG = LogManager.getLogger(SqlBuilder.class);
 
-    protected List<Object> values = new LinkedList<>();
+    protected List<Object> values = new ArrayList<>();
     public abstract String getSql();
 
 
@@ -36,20 +37,34 @@ public abstract class SqlBuilder {
         //We are relying on the underlying prepareStatement() but this seems reasonable.
 //        LOG.trace("generated sql: " + getSql());
 
+        String sql = getSql();
+        StatementCacheStats.record(conn, sql);
         PreparedStatement stmt = returnNewKeys?
-                conn.prepareStatement(getSql(), RETURN_GENERATED_KEYS):
-                conn.prepareStatement(getSql());
+                conn.prepareStatement(sql, RETURN_GENERATED_KEYS):
+                conn.prepareStatement(sql);
         try {
             //Error here would leak connection, so catch, close and re-throw.
             fillStatement(stmt);
         } catch (Throwable t) {
-            LOG.error("Failed to populate generated sql: " + getSql());
+            LOG.error("Failed to populate generated sql: " + sql);
             stmt.close();
             throw t;
         }
         return stmt;
     }
 
+    // Values in bind order, with sub-query values expanded in place.
+    public List<Object> getBoundValues() {
+        List<Object> bound = new ArrayList<>(values.size());
+        for(Object value: values) {
+            if(value instanceof SqlBuilder)
+                bound.addAll(((SqlBuilder) value).getBoundValues());
+            else
+                bound.add(value);
+        }
+        return bound;
+    }
+
     protected void fillStatement(PreparedStatement stmt) {
         fillStatement(stmt, new AtomicInteger(1));
     }
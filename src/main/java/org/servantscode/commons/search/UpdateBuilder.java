@@ -13,12 +13,13 @@ import static org.servantscode.commons.StringUtils.isSet;
 public class UpdateBuilder extends FilterableBuilder<UpdateBuilder> {
     private static Logger LOG = LogManager.getLogger(UpdateBuilder.class);
 
-    private enum BuilderState { START, WITH, TABLE, JOIN, VALUES, WHERE, DONE };
+    private enum BuilderState { START, WITH, TABLE, JOIN, VALUES, WHERE, RETURNING, DONE };
 
     private String table = null;
     private String with = null;
     private List<String> fields = new LinkedList<>();
     private List<String> joins = new LinkedList<>();
+    private List<String> returning = new LinkedList<>();
 
     private BuilderState state = BuilderState.START;
 
@@ -52,6 +53,14 @@ public class UpdateBuilder extends FilterableBuilder<UpdateBuilder> {
         return this;
     }
 
+    public UpdateBuilder returning(String... columns) {
+        setState(BuilderState.RETURNING);
+        this.returning.addAll(Arrays.asList(columns));
+        return this;
+    }
+
+    public boolean hasReturning() { return !returning.isEmpty(); }
+
     @Override
     protected void startFiltering() {
         setState(BuilderState.WHERE);
@@ -79,6 +88,8 @@ public class UpdateBuilder extends FilterableBuilder<UpdateBuilder> {
                .append(")");
          if(!wheres.isEmpty())
             sql.append(" WHERE ").append(String.join(" AND ", wheres));
+        if(!returning.isEmpty())
+            sql.append(" RETURNING ").append(String.join(", ", returning));
 
         return sql.toString();
     }
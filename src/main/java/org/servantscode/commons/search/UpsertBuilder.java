@@ -0,0 +1,107 @@
+package org.servantscode.commons.search;
+
+import org.servantscode.commons.security.OrganizationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+
+// INSERT ... ON CONFLICT ... DO UPDATE in a single round trip.
+//   new UpsertBuilder().into("configuration").value("config", c).value("value", v).inOrg()
+//                      .onConflict("config", "org_id").updateExcluded("value")
+public class UpsertBuilder extends SqlBuilder {
+    private enum BuilderState {START, INTO, VALUES, CONFLICT, UPDATE, RETURNING, DONE };
+
+    private String table = null;
+    private List<String> fields = new ArrayList<>();
+    private ConflictClause conflict = new ConflictClause();
+    private List<String> returning = new ArrayList<>();
+
+    private BuilderState state = BuilderState.START;
+
+    public UpsertBuilder() {}
+
+    public UpsertBuilder into(String table) {
+        setState(BuilderState.INTO);
+        this.table = table;
+        return this;
+    }
+
+    public UpsertBuilder value(String field, Object value) {
+        setState(BuilderState.VALUES);
+        this.fields.add(field);
+        this.values.add(value);
+        return this;
+    }
+
+    public UpsertBuilder inOrg() {
+        return inOrg("org_id");
+    }
+
+    public UpsertBuilder inOrg(String field) {
+        return value(field, OrganizationContext.orgId());
+    }
+
+    public UpsertBuilder onConflict(String... columns) {
+        setState(BuilderState.CONFLICT);
+        conflict.onConflict(columns);
+        return this;
+    }
+
+    public UpsertBuilder onConstraint(String constraint) {
+        setState(BuilderState.CONFLICT);
+        conflict.onConstraint(constraint);
+        return this;
+    }
+
+    public UpsertBuilder doNothing() {
+        setState(BuilderState.UPDATE);
+        conflict.doNothing();
+        return this;
+    }
+
+    // SET field=EXCLUDED.field for each field. Without any update calls, all non-target fields are updated this way.
+    public UpsertBuilder updateExcluded(String... fields) {
+        setState(BuilderState.UPDATE);
+        conflict.updateExcluded(fields);
+        return this;
+    }
+
+    public UpsertBuilder update(String field, Object value) {
+        setState(BuilderState.UPDATE);
+        conflict.update(field + "=?");
+        this.values.add(value);
+        return this;
+    }
+
+    public UpsertBuilder returning(String... columns) {
+        setState(BuilderState.RETURNING);
+        this.returning.addAll(asList(columns));
+        return this;
+    }
+
+    public boolean hasReturning() { return !returning.isEmpty(); }
+
+    @Override
+    public String getSql() {
+        setState(BuilderState.DONE);
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(table);
+        sql.append(" (").append(String.join(", ", fields)).append(")");
+        sql.append(" VALUES (").append(String.join(", ", nCopies(fields.size(), "?"))).append(")");
+        sql.append(conflict.getSql(fields));
+        if(!returning.isEmpty())
+            sql.append(" RETURNING ").append(String.join(", ", returning));
+        return sql.toString();
+    }
+
+    // ----- Private -----
+    private void setState(BuilderState nextState) {
+        if(nextState.compareTo(state) < 0)
+            throw new IllegalStateException("Cannot " + nextState + " after " + state);
+
+        state = nextState;
+    }
+}
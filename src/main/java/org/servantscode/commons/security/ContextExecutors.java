@@ -0,0 +1,143 @@
+package org.servantscode.commons.security;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+
+// Decorators that carry the RequestContext of the submitting thread into the thread that runs the work.
+// Task wrappers capture when they are created; executor wrappers capture on each submission.
+public class ContextExecutors {
+
+    private ContextExecutors() {}
+
+    public static Runnable wrap(Runnable task) {
+        RequestContext context = RequestContext.capture();
+        return () -> context.run(task);
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        RequestContext context = RequestContext.capture();
+        return () -> context.call(task);
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        RequestContext context = RequestContext.capture();
+        return () -> {
+            RequestContext previous = context.apply();
+            try {
+                return task.call();
+            } finally {
+                previous.apply();
+            }
+        };
+    }
+
+    public static Executor wrap(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    public static ExecutorService wrap(ExecutorService executor) {
+        return new ContextExecutorService(executor);
+    }
+
+    // Parallel streams and other fork/join work split into subtasks that run on whichever worker picks them up,
+    // so wrapping the submitted task is not enough. Every worker of this pool runs under the context captured here.
+    // Meant for one request's fan-out: create it, submit to it, shut it down.
+    //   ForkJoinPool pool = ContextExecutors.newForkJoinPool(4);
+    //   try { pool.submit(() -> people.parallelStream().map(this::score).collect(toList())).get(); }
+    //   finally { pool.shutdown(); }
+    public static ForkJoinPool newForkJoinPool(int parallelism) {
+        RequestContext context = RequestContext.capture();
+        return new ForkJoinPool(parallelism, pool -> new ContextWorkerThread(pool, context), null, false);
+    }
+
+    // ----- Private -----
+    private static class ContextWorkerThread extends ForkJoinWorkerThread {
+        private final RequestContext context;
+
+        private ContextWorkerThread(ForkJoinPool pool, RequestContext context) {
+            super(pool);
+            this.context = context;
+            setDaemon(true);
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            context.apply();
+        }
+    }
+
+    private static class ContextExecutorService implements ExecutorService {
+        private final ExecutorService delegate;
+
+        private ContextExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) { delegate.execute(wrap(command)); }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) { return delegate.submit(wrap(task)); }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) { return delegate.submit(wrap(task), result); }
+
+        @Override
+        public Future<?> submit(Runnable task) { return delegate.submit(wrap(task)); }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+            return delegate.invokeAny(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public void shutdown() { delegate.shutdown(); }
+
+        @Override
+        public List<Runnable> shutdownNow() { return delegate.shutdownNow(); }
+
+        @Override
+        public boolean isShutdown() { return delegate.isShutdown(); }
+
+        @Override
+        public boolean isTerminated() { return delegate.isTerminated(); }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+
+        private <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+            return tasks.stream().map(ContextExecutors::wrap).collect(toList());
+        }
+    }
+}
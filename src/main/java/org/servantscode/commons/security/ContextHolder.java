@@ -0,0 +1,60 @@
+package org.servantscode.commons.security;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+// Storage for per-request state (enabled organization, permissions). Defaults to a ThreadLocal.
+// Another storage strategy can be plugged in by registering a ContextHolder.Provider with java.util.ServiceLoader
+// (META-INF/services/org.servantscode.commons.security.ContextHolder$Provider). The first provider found is used.
+public interface ContextHolder<T> {
+    T get();
+    void set(T value);
+    void remove();
+
+    interface Provider {
+        <T> ContextHolder<T> create(String name);
+    }
+
+    static <T> ContextHolder<T> create(String name) {
+        return Providers.PROVIDER.create(name);
+    }
+
+    class ThreadLocalHolder<T> implements ContextHolder<T> {
+        private final ThreadLocal<T> local = new ThreadLocal<>();
+
+        @Override
+        public T get() { return local.get(); }
+
+        @Override
+        public void set(T value) { local.set(value); }
+
+        @Override
+        public void remove() { local.remove(); }
+    }
+
+    // Resolved once, when the first holder is created.
+    final class Providers {
+        private static final Logger LOG = LogManager.getLogger(ContextHolder.class);
+        private static final Provider PROVIDER = loadProvider();
+
+        private Providers() {}
+
+        private static Provider loadProvider() {
+            Iterator<Provider> providers = ServiceLoader.load(Provider.class).iterator();
+            if(providers.hasNext()) {
+                Provider provider = providers.next();
+                LOG.info("Using context holder provider: " + provider.getClass().getName());
+                return provider;
+            }
+            return new Provider() {
+                @Override
+                public <T> ContextHolder<T> create(String name) {
+                    return new ThreadLocalHolder<>();
+                }
+            };
+        }
+    }
+}
@@ -2,21 +2,35 @@ package org.servantscode.commons.security;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.EnvProperty;
 import org.servantscode.commons.Organization;
+import org.servantscode.commons.cache.ExpiringCache;
 import org.servantscode.commons.db.OrganizationDB;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 public class OrganizationContext {
     private static final Logger LOG = LogManager.getLogger(OrganizationContext.class);
 
-    private static ThreadLocal<OrganizationContext> LOCAL_INSTANCE = new ThreadLocal<>();
+    private static ContextHolder<OrganizationContext> LOCAL_INSTANCE = ContextHolder.create("organization");
     private static OrganizationDB db = new OrganizationDB();
 
+    //Organizations almost never change. Unknown hosts are cached for a shorter time to blunt junk traffic.
+    private static final ExpiringCache<String, Organization> ORG_CACHE =
+            new ExpiringCache<>(Integer.parseInt(EnvProperty.get("ORG_CACHE_SIZE", "256")),
+                                SECONDS.toMillis(Long.parseLong(EnvProperty.get("ORG_CACHE_TTL", "300"))),
+                                SECONDS.toMillis(Long.parseLong(EnvProperty.get("ORG_CACHE_NEGATIVE_TTL", "30"))));
+
     private static boolean REQUIRE_ORG = true;
 
     public static void disableMultiTenancy() {
         REQUIRE_ORG = false;
     }
 
+    public static void enableMultiTenancy() {
+        REQUIRE_ORG = true;
+    }
+
     public static boolean isMultiTenant() { return REQUIRE_ORG; }
 
     public static void enableOrganization(String hostName) {
@@ -36,13 +50,37 @@ public class OrganizationContext {
 
     public static void clearEnabledOrganization() { LOCAL_INSTANCE.remove(); }
 
+    // For RequestContext. Moves the enabled organization between threads without another lookup.
+    static OrganizationContext current() { return LOCAL_INSTANCE.get(); }
+
+    static void restore(OrganizationContext context) {
+        if(context == null)
+            LOCAL_INSTANCE.remove();
+        else
+            LOCAL_INSTANCE.set(context);
+    }
+
+    // ----- Cache -----
+    public static ExpiringCache<String, Organization> getOrganizationCache() { return ORG_CACHE; }
+
+    public static void invalidateOrganization(int orgId) {
+        ORG_CACHE.invalidateIf((hostName, org) -> org != null && org.getId() == orgId);
+    }
+
+    public static void invalidateHost(String hostName) {
+        if(hostName != null)
+            ORG_CACHE.invalidate(hostName);
+    }
+
+    public static void clearOrganizationCache() { ORG_CACHE.clear(); }
+
     // ----- Instance -----
     private Organization enabledOrganization;
 
     private OrganizationContext(String hostName) {
 //        LOG.debug("Organization set to: " + hostName);
         if(REQUIRE_ORG)
-            enabledOrganization = db.getOrganization(hostName);
+            enabledOrganization = ORG_CACHE.get(hostName, db::getOrganization);
     }
 
     private Organization getEnabledOrganization() {
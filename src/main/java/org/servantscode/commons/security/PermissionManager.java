@@ -6,7 +6,7 @@ import org.apache.logging.log4j.Logger;
 public class PermissionManager {
     private static final Logger LOG = LogManager.getLogger(PermissionManager.class);
 
-    private static ThreadLocal<PermissionManager> LOCAL_INSTANCE = new ThreadLocal<>();
+    private static ContextHolder<PermissionManager> LOCAL_INSTANCE = ContextHolder.create("permissions");
 
     public static void enablePermissions(String[] permissions) {
         LOCAL_INSTANCE.set(new PermissionManager(permissions));
@@ -29,6 +29,16 @@ public class PermissionManager {
         LOCAL_INSTANCE.remove();
     }
 
+    // For RequestContext.
+    static PermissionManager current() { return LOCAL_INSTANCE.get(); }
+
+    static void restore(PermissionManager permissions) {
+        if(permissions == null)
+            LOCAL_INSTANCE.remove();
+        else
+            LOCAL_INSTANCE.set(permissions);
+    }
+
     // ----- Instance -----
     private String[] userPerms;
 
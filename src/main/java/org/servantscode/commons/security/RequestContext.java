@@ -0,0 +1,53 @@
+package org.servantscode.commons.security;
+
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Snapshot of the per-request thread state: enabled organization, user permissions and the log4j ThreadContext.
+// Capture on the request thread, then run work elsewhere under it. The worker's own state is put back afterwards.
+public class RequestContext {
+    private final OrganizationContext organization;
+    private final PermissionManager permissions;
+    private final Map<String, String> logContext;
+
+    private RequestContext(OrganizationContext organization, PermissionManager permissions, Map<String, String> logContext) {
+        this.organization = organization;
+        this.permissions = permissions;
+        this.logContext = logContext;
+    }
+
+    public static RequestContext capture() {
+        return new RequestContext(OrganizationContext.current(), PermissionManager.current(), ThreadContext.getContext());
+    }
+
+    public void run(Runnable work) {
+        RequestContext previous = apply();
+        try {
+            work.run();
+        } finally {
+            previous.apply();
+        }
+    }
+
+    public <T> T call(Supplier<T> work) {
+        RequestContext previous = apply();
+        try {
+            return work.get();
+        } finally {
+            previous.apply();
+        }
+    }
+
+    // Installs this snapshot on the current thread. Returns what was there before so it can be restored.
+    public RequestContext apply() {
+        RequestContext previous = capture();
+        OrganizationContext.restore(organization);
+        PermissionManager.restore(permissions);
+        ThreadContext.clearMap();
+        if(!logContext.isEmpty())
+            ThreadContext.putAll(logContext);
+        return previous;
+    }
+}
@@ -23,8 +23,9 @@ public class SCPrincipal implements Principal {
         return getUserId() == ((SCPrincipal)another).getUserId();
     }
 
+    // The subject SystemJWTGenerator mints, as DefaultSessionVerifier recognizes it.
     public boolean isSystem() {
-        return SYSTEM.equals(jwt.getSubject());
+        return SCSecurityContext.SYSTEM.equals(jwt.getSubject());
     }
 
     public String getSubject() {
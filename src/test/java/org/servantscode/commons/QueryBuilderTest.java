@@ -1,8 +1,11 @@
 package org.servantscode.commons;
 
 import org.junit.Test;
+import org.servantscode.commons.search.PageToken;
 import org.servantscode.commons.search.QueryBuilder;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 
 public class QueryBuilderTest {
@@ -15,4 +18,52 @@ public class QueryBuilderTest {
         assertEquals("WITH table1 SELECT e.id FROM entity e", sql);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPageAfter(){
+        String sql = new QueryBuilder().select("*").from("donations").where("org_id=?", 1)
+                .pageAfter("date DESC, id DESC", Arrays.asList("2020-01-01", 7), 25).getSql();
+
+        assertEquals("SELECT * FROM donations WHERE org_id=? AND (date, id) < (?, ?) ORDER BY date DESC, id DESC LIMIT ?", sql);
+    }
+
+    @Test
+    public void testPageAfterWithOrs(){
+        QueryBuilder query = new QueryBuilder().select("*").from("donations").where("a=?", 1).or().where("b=?", 2)
+                .pageAfter("id", PageToken.encode(7), 25);
+
+        assertEquals("SELECT * FROM donations WHERE ((a=?) OR (b=?)) AND (id) > (?) ORDER BY id LIMIT ?", query.getSql());
+    }
+
+    @Test
+    public void testPageAfterMixedDirections(){
+        String sql = new QueryBuilder().select("*").from("donations")
+                .pageAfter("amount DESC, id ASC", Arrays.asList(10, 7), 25).getSql();
+
+        assertEquals("SELECT * FROM donations WHERE ((amount<?) OR (amount=? AND id>?)) ORDER BY amount DESC, id ASC LIMIT ?", sql);
+    }
+
+    @Test
+    public void testPageAfterFirstPage(){
+        String sql = new QueryBuilder().select("*").from("donations").pageAfter("id", (String) null, 25).getSql();
+
+        assertEquals("SELECT * FROM donations ORDER BY id LIMIT ?", sql);
+    }
+
+    @Test
+    public void testExplain(){
+        QueryBuilder query = new QueryBuilder().select("*").from("donations").where("org_id=?", 1);
+
+        assertEquals("EXPLAIN SELECT * FROM donations WHERE org_id=?", query.explain().getSql());
+        assertEquals("EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM donations WHERE org_id=?", query.explain("ANALYZE, BUFFERS").getSql());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageAfterValueCountMismatch(){
+        new QueryBuilder().select("*").from("donations").pageAfter("date, id", Arrays.asList(7), 25);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageAfterNullValue(){
+        new QueryBuilder().select("*").from("donations").pageAfter("date, id", Arrays.asList(null, 7), 25);
+    }
+}
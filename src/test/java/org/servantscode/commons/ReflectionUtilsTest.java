@@ -1,14 +1,19 @@
 package org.servantscode.commons;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ReflectionUtilsTest {
 
     private class DeepTestClass {
         String level1 = "foo";
         ShallowTestClass shallow = new ShallowTestClass();
+        DeepTestClass parent;
 
         public String getLevel1() { return level1; }
         public void setLevel1(String level1) { this.level1 = level1; }
@@ -16,6 +21,12 @@ public class ReflectionUtilsTest {
         public ShallowTestClass getShallow() { return shallow; }
         public void setShallow(ShallowTestClass shallow) { this.shallow = shallow; }
 
+        public DeepTestClass getParent() { return parent; }
+        public void setParent(DeepTestClass parent) { this.parent = parent; }
+
+        @JsonProperty("label")
+        public String getDisplayName() { return "Deep " + level1; }
+
         private class ShallowTestClass {
             String level2 = "bar";
             int number2 = 2;
@@ -34,5 +45,32 @@ public class ReflectionUtilsTest {
         assertEquals("Could not get proper class type", String.class, ReflectionUtils.getDeepFieldType(DeepTestClass.class, "level1"));
         assertEquals("Could not get proper class type", String.class, ReflectionUtils.getDeepFieldType(DeepTestClass.class, "shallow.level2"));
         assertEquals("Could not get proper class type", int.class, ReflectionUtils.getDeepFieldType(DeepTestClass.class, "shallow.number2"));
+        assertEquals("Could not get proper class type", int.class, ReflectionUtils.getDeepFieldType(DeepTestClass.class, "parent.parent.shallow.number2"));
+        assertNull(ReflectionUtils.getDeepFieldType(DeepTestClass.class, "shallow.missing"));
+    }
+
+    @Test
+    public void testMetadataCached() {
+        assertSame(ClassMetadata.of(DeepTestClass.class), ClassMetadata.of(DeepTestClass.class));
+        assertSame(ClassMetadata.of(DeepTestClass.class).getPath("shallow.level2"), ClassMetadata.of(DeepTestClass.class).getPath("shallow.level2"));
+    }
+
+    @Test
+    public void testMetadataNames() {
+        ClassMetadata metadata = ClassMetadata.of(DeepTestClass.class);
+        assertTrue("Annotated getter should use json name", metadata.getField("label") != null);
+        assertNull(metadata.getField("displayName"));
+        assertEquals(4, metadata.getReadableFields().size());
+    }
+
+    @Test
+    public void testMetadataAccess() {
+        DeepTestClass testObj = new DeepTestClass();
+        ClassMetadata.FieldInfo level2 = ClassMetadata.of(DeepTestClass.class).getPath("shallow.level2");
+        assertEquals("bar", level2.get(testObj.getShallow()));
+
+        level2.set(testObj.getShallow(), "baz");
+        assertEquals("baz", testObj.getShallow().getLevel2());
+        assertEquals("Deep foo", ClassMetadata.of(DeepTestClass.class).getField("label").get(testObj));
     }
 }
@@ -15,4 +15,16 @@ public class UpdateBuilderTest {
         assertEquals(sql, "WITH table1 UPDATE entity");
     }
 
+    @Test
+    public void testReturning(){
+        String sql = new UpdateBuilder().update("entity").value("name", "foo").where("id=?", 1).returning("*").getSql();
+
+        assertEquals("UPDATE entity SET name=? WHERE id=? RETURNING *", sql);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWhereAfterReturning(){
+        new UpdateBuilder().update("entity").value("name", "foo").returning("*").where("id=?", 1);
+    }
+
 }
@@ -0,0 +1,152 @@
+package org.servantscode.commons.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ExpiringCacheTest {
+    private final AtomicLong now = new AtomicLong(1000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private String load(String key) {
+        loads.incrementAndGet();
+        return key.startsWith("missing")? null: key.toUpperCase();
+    }
+
+    @Test
+    public void testHitAfterLoad() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 100, 100, now::get);
+        assertEquals("FOO", cache.get("foo", this::load));
+        assertEquals("FOO", cache.get("foo", this::load));
+        assertEquals("Loader should only be called once", 1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiration() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 100, 100, now::get);
+        cache.get("foo", this::load);
+        now.addAndGet(100);
+        cache.get("foo", this::load);
+        assertEquals("Expired entry should be reloaded", 2, loads.get());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 100, 10, now::get);
+        assertNull(cache.get("missing", this::load));
+        assertNull(cache.get("missing", this::load));
+        assertEquals("Null result should be cached", 1, loads.get());
+
+        now.addAndGet(10);
+        cache.get("missing", this::load);
+        assertEquals("Negative entry should use its own ttl", 2, loads.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(2, 100, 100, now::get);
+        cache.get("a", this::load);
+        cache.get("b", this::load);
+        cache.get("a", this::load);
+        cache.get("c", this::load);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.containsKey("a"));
+        assertFalse("Least recently used entry should be evicted", cache.containsKey("b"));
+    }
+
+    @Test
+    public void testInvalidateIf() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 100, 100, now::get);
+        cache.get("a", this::load);
+        cache.get("b", this::load);
+        cache.invalidateIf((key, value) -> "B".equals(value));
+
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+    }
+
+    @Test
+    public void testValueTtl() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 100, 100, now::get);
+        cache.get("short", this::load, value -> 5);
+        cache.get("never", this::load, value -> 0);
+
+        assertFalse("Zero ttl should not be cached", cache.containsKey("never"));
+        now.addAndGet(5);
+        assertFalse("Value ttl should override default", cache.containsKey("short"));
+    }
+
+    @Test
+    public void testWeightBound() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 6, String::length, 100, 100, now::get);
+        cache.put("a", "aaa");
+        cache.put("b", "bb");
+        assertEquals(5, cache.getWeight());
+
+        cache.get("a", this::load);
+        cache.put("c", "cc");
+        assertNull("Least recently used entry evicted to fit the weight", cache.getIfPresent("b"));
+        assertEquals("aaa", cache.getIfPresent("a"));
+        assertEquals(5, cache.getWeight());
+
+        cache.put("d", "ddddddd");
+        assertFalse("Heavier than the bound on its own", cache.containsKey("d"));
+
+        cache.invalidate("a");
+        assertEquals(2, cache.getWeight());
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testInvalidationDuringLoad() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 100, 100, now::get);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals("Load that raced an invalidate is not kept", "STALE", loadDuring(cache, executor, () -> cache.invalidate("foo")));
+            assertNull(cache.getIfPresent("foo"));
+
+            assertEquals("STALE", loadDuring(cache, executor, () -> cache.invalidateIf((key, value) -> true)));
+            assertNull(cache.getIfPresent("foo"));
+
+            assertEquals("STALE", loadDuring(cache, executor, () -> cache.put("foo", "NEW")));
+            assertEquals("Put during a load wins", "NEW", cache.getIfPresent("foo"));
+
+            cache.clear();
+            assertEquals("FOO", cache.get("foo", this::load));
+            assertEquals("Undisturbed load is kept", "FOO", cache.getIfPresent("foo"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ----- Private -----
+    private String loadDuring(ExpiringCache<String, String> cache, ExecutorService executor, Runnable change) throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        Future<String> load = executor.submit(() -> cache.get("foo", key -> {
+            loading.countDown();
+            try {
+                changed.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return "STALE";
+        }));
+
+        loading.await();
+        change.run();
+        changed.countDown();
+        return load.get();
+    }
+}
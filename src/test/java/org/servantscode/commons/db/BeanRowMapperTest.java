@@ -0,0 +1,177 @@
+package org.servantscode.commons.db;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BeanRowMapperTest {
+    public enum Status {ACTIVE, INACTIVE};
+
+    public static class Person {
+        private int id;
+        private String fullName;
+        private Integer age;
+        private Status status;
+        private ZonedDateTime created;
+        private String email;
+
+        public int getId() { return id; }
+        public void setId(int id) { this.id = id; }
+        public String getFullName() { return fullName; }
+        public void setFullName(String fullName) { this.fullName = fullName; }
+        public Integer getAge() { return age; }
+        public void setAge(Integer age) { this.age = age; }
+        public Status getStatus() { return status; }
+        public void setStatus(Status status) { this.status = status; }
+        public ZonedDateTime getCreated() { return created; }
+        public void setCreated(ZonedDateTime created) { this.created = created; }
+        public String getEmail() { return email; }
+        public void setEmail(String email) { this.email = email; }
+    }
+
+    @After
+    public void tearDown() {
+        ColumnIndex.clearCache();
+    }
+
+    @Test
+    public void testColumnIndex() throws SQLException {
+        ColumnIndex columns = ColumnIndex.of(resultSet(new String[] {"id", "Name", "id"}));
+        assertEquals("First occurrence wins", 1, columns.indexOf("id"));
+        assertEquals(2, columns.indexOf("Name"));
+        assertEquals("Case insensitive fallback", 2, columns.indexOf("name"));
+        assertEquals(0, columns.indexOf("missing"));
+        assertTrue(columns.hasColumn("Name"));
+        assertFalse("hasColumn is exact", columns.hasColumn("name"));
+
+        try {
+            columns.requireIndex("missing");
+            fail("Missing columns should fail");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("missing"));
+        }
+    }
+
+    @Test
+    public void testColumnIndexCache() throws SQLException {
+        ResultSet rs = resultSet(new String[] {"id", "name"});
+        assertSame("Same result set resolves once", ColumnIndex.of(rs), ColumnIndex.of(rs));
+
+        ColumnIndex first = ColumnIndex.forQuery("SELECT id, name FROM t", rs);
+        assertSame("Same sql reuses the resolution", first, ColumnIndex.forQuery("SELECT id, name FROM t", resultSet(new String[] {"id", "name"})));
+        ColumnIndex changed = ColumnIndex.forQuery("SELECT id, name FROM t", resultSet(new String[] {"id", "name", "email"}));
+        assertEquals("A different shape is re-resolved", 3, changed.getColumnCount());
+    }
+
+    @Test
+    public void testColumnIndexSameCountReordered() throws SQLException {
+        String sql = "SELECT * FROM t";
+        assertEquals(2, ColumnIndex.forQuery(sql, resultSet(new String[] {"id", "name", "email"})).indexOf("name"));
+
+        //Dropped and re-added, or reordered, with the same number of columns.
+        ColumnIndex reordered = ColumnIndex.forQuery(sql, resultSet(new String[] {"id", "email", "name"}));
+        assertEquals(3, reordered.indexOf("name"));
+        assertEquals(2, reordered.indexOf("email"));
+
+        ColumnIndex replaced = ColumnIndex.forQuery(sql, resultSet(new String[] {"id", "phone", "name"}));
+        assertEquals(0, replaced.indexOf("email"));
+        assertEquals(2, replaced.indexOf("phone"));
+    }
+
+    @Test
+    public void testMapping() throws SQLException {
+        Map<String, String> fieldMap = new HashMap<>();
+        fieldMap.put("email", "p.email_address");
+
+        ZonedDateTime created = ZonedDateTime.now().withNano(0);
+        ResultSet rs = resultSet(new String[] {"id", "full_name", "age", "status", "created", "email_address", "sc_total_results"},
+                                 new Object[] {7, "Jane Doe", null, "ACTIVE", DBAccess.convert(created), "jane@example.com", 10});
+        rs.next();
+
+        BeanRowMapper<Person> mapper = new BeanRowMapper<>(Person.class, fieldMap);
+        Person person = mapper.map(rs, ColumnIndex.of(rs));
+        assertEquals(7, person.getId());
+        assertEquals("Jane Doe", person.getFullName());
+        assertNull("Null stays null for boxed fields", person.getAge());
+        assertEquals(Status.ACTIVE, person.getStatus());
+        assertEquals(created.toInstant(), person.getCreated().toInstant());
+        assertEquals("Mapped through the field map", "jane@example.com", person.getEmail());
+    }
+
+    @Test
+    public void testEasyDBRowMapper() throws SQLException {
+        EasyDB<Person> db = new EasyDB<Person>(Person.class, "fullName") {{
+            setRowMapper(new BeanRowMapper<>(Person.class));
+        }};
+        ResultSet rs = resultSet(new String[] {"id", "full_name"}, new Object[] {3, "John"});
+        rs.next();
+        assertEquals("John", db.processRow(rs).getFullName());
+        assertEquals(3, db.processRow(rs, ColumnIndex.of(rs)).getId());
+        assertTrue(db.hasColumn(rs, "full_name"));
+        assertFalse(db.hasColumn(rs, "age"));
+
+        EasyDB<Person> unmapped = new EasyDB<Person>(Person.class, "fullName") {};
+        try {
+            unmapped.processRow(rs);
+            fail("No mapping configured");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    // ----- Private -----
+    // Serves the given rows by index only; reads by label fail so mappers must use the index.
+    private static ResultSet resultSet(String[] labels, Object[]... rows) {
+        ResultSetMetaData metadata = (ResultSetMetaData) Proxy.newProxyInstance(BeanRowMapperTest.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return labels.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return labels[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        List<Object[]> data = new ArrayList<>();
+        for(Object[] row: rows)
+            data.add(row);
+        int[] current = {-1};
+        Object[] lastRead = {null};
+        return (ResultSet) Proxy.newProxyInstance(BeanRowMapperTest.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if(name.equals("getMetaData"))
+                        return metadata;
+                    if(name.equals("next"))
+                        return ++current[0] < data.size();
+                    if(name.equals("wasNull"))
+                        return lastRead[0] == null;
+                    if(name.startsWith("get") && args != null && args[0] instanceof Integer) {
+                        Object value = data.get(current[0])[(Integer) args[0] - 1];
+                        lastRead[0] = value;
+                        switch (name) {
+                            case "getInt": return value != null? (Integer) value: 0;
+                            case "getString": return value != null? value.toString(): null;
+                            case "getTimestamp": return (Timestamp) value;
+                            default: return value;
+                        }
+                    }
+                    throw new UnsupportedOperationException(name);
+                });
+    }
+}
@@ -0,0 +1,108 @@
+package org.servantscode.commons.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConfigDBTest {
+    private final Map<String, String> table = new LinkedHashMap<>();
+    private final List<String> loads = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        table.put("mail.host", "smtp.example.com");
+        table.put("mail.port", "587");
+        table.put("mailbox", "parish");
+        table.put("timezone", "Europe/Paris");
+
+        ConfigDB.clearConfigCache();
+        FakeJdbc.install(() -> FakeJdbc.connection(this::load));
+    }
+
+    @After
+    public void tearDown() {
+        ConfigDB.clearConfigCache();
+        ReplicaRouting.clear();
+        DBAccess.setConnectionFactory(null);
+    }
+
+    @Test
+    public void testSingleLoad() {
+        ConfigDB db = new ConfigDB();
+        assertEquals("587", db.getConfiguration("mail.port"));
+        assertNull(db.getConfiguration("missing"));
+        assertEquals("smtp.example.com", new ConfigDB().getConfiguration("mail.host"));
+        assertEquals("Whole configuration should load with one query", 1, loads.size());
+    }
+
+    @Test
+    public void testPrefixLookup() {
+        Map<String, String> mail = new ConfigDB().getConfigurations("mail.");
+        assertEquals(2, mail.size());
+        assertEquals("587", mail.get("mail.port"));
+        assertEquals(3, new ConfigDB().getConfigurations("mail").size());
+    }
+
+    @Test
+    public void testParsedOnce() {
+        ConfigDB db = new ConfigDB();
+        AtomicInteger parses = new AtomicInteger();
+        Function<String, Integer> parser = value -> {
+            parses.incrementAndGet();
+            return Integer.valueOf(value);
+        };
+        for(int i = 0; i < 3; i++)
+            assertEquals(Integer.valueOf(587), db.getConfiguration("mail.port", parser));
+        assertEquals(1, parses.get());
+    }
+
+    @Test
+    public void testParsersKeptApart() {
+        ConfigDB db = new ConfigDB();
+        assertEquals(Integer.valueOf(587), db.getConfiguration("mail.port", Integer::valueOf));
+        assertEquals(Long.valueOf(587), db.getConfiguration("mail.port", Long::valueOf));
+        assertEquals("587", db.getConfiguration("mail.port", value -> value));
+    }
+
+    @Test
+    public void testPatchInvalidates() {
+        ConfigDB db = new ConfigDB();
+        assertEquals("587", db.getConfiguration("mail.port"));
+
+        db.patchConfiguration("mail.port", "25");
+        table.put("mail.port", "25");
+        assertEquals("25", db.getConfiguration("mail.port"));
+        assertEquals("Load and reload", 2, loads.size());
+    }
+
+    @Test
+    public void testInvalidatedAfterCommit() {
+        ConfigDB db = new ConfigDB();
+        TransactionTemplate.DEFAULT.run(conn -> {
+            db.patchConfiguration("mail.port", "25");
+            //Another connection still sees the committed value.
+            assertEquals("587", db.getConfiguration("mail.port"));
+            table.put("mail.port", "25");
+        });
+        assertEquals("Reloaded once the write committed", "25", db.getConfiguration("mail.port"));
+    }
+
+    // ----- Private -----
+    // Every query returns the full table as (config, value) rows.
+    private ResultSet load(String sql) {
+        loads.add(sql);
+        return FakeJdbc.rows(new String[] {"config", "value"},
+                table.entrySet().stream().map(e -> new Object[] {e.getKey(), e.getValue()}).toArray(Object[][]::new));
+    }
+}
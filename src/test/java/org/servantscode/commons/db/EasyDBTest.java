@@ -0,0 +1,126 @@
+package org.servantscode.commons.db;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.servantscode.commons.rest.PaginatedResponse;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+import static org.servantscode.commons.db.EasyDB.CountMode.*;
+
+public class EasyDBTest {
+    private final List<Executed> queries = new CopyOnWriteArrayList<>();
+    private volatile long estimate = 0;
+
+    private static class PersonDB extends EasyDB<String> {
+        PersonDB() { super(String.class, "name"); }
+
+        PaginatedResponse<String> page(int start, CountMode mode) {
+            return getPage(q -> q.from("people"), "name", start, 10, mode);
+        }
+
+        @Override
+        protected String processRow(ResultSet rs) throws SQLException { return rs.getString(1); }
+    }
+
+    private static class Executed {
+        private final String sql;
+        private final Thread thread;
+        private final String requestId;
+
+        private Executed(String sql) {
+            this.sql = sql;
+            this.thread = Thread.currentThread();
+            this.requestId = ThreadContext.get("request.id");
+        }
+    }
+
+    @Before
+    public void setUp() {
+        FakeJdbc.install(() -> FakeJdbc.connection(this::query));
+        ThreadContext.put("request.id", "r1");
+    }
+
+    @After
+    public void tearDown() {
+        ThreadContext.clearMap();
+        ReplicaRouting.clear();
+        DBAccess.setConnectionFactory(null);
+    }
+
+    @Test
+    public void testParallelPage() {
+        PaginatedResponse<String> page = new PersonDB().page(0, PARALLEL);
+        assertEquals(42, page.getTotalResults());
+        assertEquals(1, page.getCount());
+
+        Executed count = find("count(1)");
+        assertTrue("Count runs on the page executor", count.thread != Thread.currentThread());
+        assertEquals("Count runs under the caller's context", "r1", count.requestId);
+        assertEquals(2, queries.size());
+    }
+
+    @Test
+    public void testWindowPage() {
+        PaginatedResponse<String> page = new PersonDB().page(0, WINDOW);
+        assertEquals(42, page.getTotalResults());
+        assertEquals(1, queries.size());
+        assertTrue(queries.get(0).sql.contains("count(*) OVER()"));
+    }
+
+    @Test
+    public void testEstimatePage() {
+        estimate = 250000;
+        PaginatedResponse<String> page = new PersonDB().page(0, ESTIMATE);
+        assertEquals(250000, page.getTotalResults());
+        assertNull("Large estimates are not counted", find("count(1)"));
+
+        queries.clear();
+        estimate = 10;
+        page = new PersonDB().page(0, ESTIMATE);
+        assertEquals("Small estimates are counted exactly", 42, page.getTotalResults());
+        assertNotNull(find("count(1)"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testPageInTransaction() throws SQLException {
+        PersonDB db = new PersonDB();
+        try (Connection conn = db.startTransaction()) {
+            PaginatedResponse<String> page = db.page(0, PARALLEL);
+            assertEquals(42, page.getTotalResults());
+            conn.commit();
+        }
+        assertEquals(2, queries.size());
+        for(Executed query: queries)
+            assertTrue("Stays on the transaction's thread and connection", query.thread == Thread.currentThread());
+    }
+
+    // ----- Private -----
+    private Executed find(String sqlPart) {
+        for(Executed query: queries) {
+            if(query.sql.contains(sqlPart))
+                return query;
+        }
+        return null;
+    }
+
+    // Every query returns one row. Counts (and window totals) are 42; EXPLAIN reports the current estimate.
+    private ResultSet query(String sql) {
+        if(sql.startsWith("EXPLAIN"))
+            return FakeJdbc.rows(new String[] {"QUERY PLAN"}, new Object[] {"Seq Scan on people  (cost=0.00..1.00 rows=" + estimate + " width=4)"});
+        queries.add(new Executed(sql));
+        if(sql.contains("count(1)"))
+            return FakeJdbc.rows(new String[] {"count"}, new Object[] {42});
+        if(sql.contains("OVER()"))
+            return FakeJdbc.rows(new String[] {"name", "sc_total_results"}, new Object[] {"person", 42});
+        return FakeJdbc.rows(new String[] {"name"}, new Object[] {"person"});
+    }
+}
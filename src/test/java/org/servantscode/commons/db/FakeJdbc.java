@@ -0,0 +1,200 @@
+package org.servantscode.commons.db;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toMap;
+
+// Proxy backed JDBC for DAO tests. Connections keep the transaction state DBAccess and TransactionTemplate read back,
+// record what was done to them, and hand every executeQuery to the test's Queries.
+class FakeJdbc {
+    @FunctionalInterface
+    interface Queries {
+        ResultSet execute(String sql) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    static void install(ConnectionSource primary) {
+        install(primary, Collections.emptyMap());
+    }
+
+    static void install(ConnectionSource primary, Map<String, ConnectionSource> replicas) {
+        DBAccess.setConnectionFactory(new ConnectionFactory() {
+            @Override
+            public DataSource configureSource() {
+                return source(primary);
+            }
+
+            @Override
+            public Map<String, DataSource> configureReplicas() {
+                return replicas.entrySet().stream().collect(toMap(Map.Entry::getKey, e -> source(e.getValue()), (a, b) -> a, LinkedHashMap::new));
+            }
+        });
+    }
+
+    static DataSource source(ConnectionSource connections) {
+        return (DataSource) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {DataSource.class},
+                (proxy, method, args) -> method.getName().equals("getConnection")? connections.get(): null);
+    }
+
+    static Connection connection(Queries queries) {
+        return connection(null, null, queries);
+    }
+
+    // The name is reported as the catalog. Calls other than reads and statement creation are added to calls, if given,
+    // as "setAutoCommit(false)", "commit", "rollback(savepoint)" and so on. Plain statements record "execute(sql)".
+    // Updates report one row changed.
+    static Connection connection(String name, List<String> calls, Queries queries) {
+        boolean[] autoCommit = {true};
+        boolean[] readOnly = {false};
+        int[] isolation = {Connection.TRANSACTION_READ_COMMITTED};
+        Connection[] self = new Connection[1];
+        self[0] = (Connection) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getCatalog":
+                            return name;
+                        case "getAutoCommit":
+                            return autoCommit[0];
+                        case "isReadOnly":
+                            return readOnly[0];
+                        case "getTransactionIsolation":
+                            return isolation[0];
+                        case "isValid":
+                            return true;
+                        case "prepareStatement":
+                            return statement(self[0], (String) args[0], queries);
+                        case "createStatement":
+                            return plainStatement(calls);
+                        case "setSavepoint":
+                            record(calls, method.getName(), args);
+                            return Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {Savepoint.class},
+                                    (sp, spMethod, spArgs) -> null);
+                        case "setAutoCommit":
+                            autoCommit[0] = (Boolean) args[0];
+                            break;
+                        case "setReadOnly":
+                            readOnly[0] = (Boolean) args[0];
+                            break;
+                        case "setTransactionIsolation":
+                            isolation[0] = (Integer) args[0];
+                            break;
+                    }
+                    record(calls, method.getName(), args);
+                    return defaultValue(method.getReturnType());
+                });
+        return self[0];
+    }
+
+    // Serves the given rows by index only; reads by label fail so callers must use the index.
+    static ResultSet rows(String[] labels, Object[]... rows) {
+        ResultSetMetaData metadata = (ResultSetMetaData) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return labels.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return labels[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        List<Object[]> data = Arrays.asList(rows);
+        int[] current = {-1};
+        Object[] lastRead = {null};
+        return (ResultSet) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if(name.equals("getMetaData"))
+                        return metadata;
+                    if(name.equals("next"))
+                        return ++current[0] < data.size();
+                    if(name.equals("wasNull"))
+                        return lastRead[0] == null;
+                    if(name.equals("close"))
+                        return null;
+                    if(name.startsWith("get") && args != null && args[0] instanceof Integer) {
+                        Object value = data.get(current[0])[(Integer) args[0] - 1];
+                        lastRead[0] = value;
+                        switch (name) {
+                            case "getInt": return value != null? ((Number) value).intValue(): 0;
+                            case "getLong": return value != null? ((Number) value).longValue(): 0L;
+                            case "getString": return value != null? value.toString(): null;
+                            case "getTimestamp": return (Timestamp) value;
+                            default: return value;
+                        }
+                    }
+                    throw new UnsupportedOperationException(name);
+                });
+    }
+
+    // ----- Private -----
+    private static PreparedStatement statement(Connection conn, String sql, Queries queries) {
+        return (PreparedStatement) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "executeQuery":
+                            return queries != null? queries.execute(sql): rows(new String[0]);
+                        case "getGeneratedKeys":
+                            return rows(new String[0]);
+                        case "executeUpdate":
+                            return 1;
+                        case "executeBatch":
+                            return new int[0];
+                        case "getConnection":
+                            return conn;
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Statement plainStatement(List<String> calls) {
+        return (Statement) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {Statement.class},
+                (proxy, method, args) -> {
+                    if(method.getName().equals("execute"))
+                        record(calls, "execute", args);
+                    return defaultValue(method.getReturnType());
+                });
+    }
+
+    private static void record(List<String> calls, String method, Object[] args) {
+        if(calls == null)
+            return;
+        if(args == null || args.length == 0) {
+            calls.add(method);
+            return;
+        }
+        List<String> shown = new ArrayList<>(args.length);
+        for(Object arg: args)
+            shown.add(arg instanceof Savepoint? "savepoint": String.valueOf(arg));
+        calls.add(method + "(" + String.join(", ", shown) + ")");
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if(type == boolean.class) return false;
+        if(type == int.class) return 0;
+        if(type == long.class) return 0L;
+        return null;
+    }
+}
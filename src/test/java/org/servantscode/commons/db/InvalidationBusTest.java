@@ -0,0 +1,67 @@
+package org.servantscode.commons.db;
+
+import org.junit.Test;
+import org.servantscode.commons.Session;
+import org.servantscode.commons.db.InvalidationBus.InvalidationEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class InvalidationBusTest {
+
+    @Test
+    public void testEncodeDecode() {
+        InvalidationEvent event = InvalidationEvent.decode("node|session|a|b");
+        assertEquals("node", event.getSource());
+        assertEquals("session", event.getTopic());
+        assertEquals("Keys may contain the separator", "a|b", event.getKey());
+        assertEquals("node|session|a|b", event.encode());
+
+        InvalidationEvent all = InvalidationEvent.decode("node|configuration");
+        assertTrue(all.isAll());
+        assertNull(all.getKey());
+        assertEquals("node|configuration", all.encode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalid() {
+        InvalidationEvent.decode("garbage");
+    }
+
+    @Test
+    public void testReceive() {
+        List<String> keys = new ArrayList<>();
+        InvalidationBus.subscribe("test.receive", event -> keys.add(event.getKey()));
+        InvalidationBus.subscribe("test.receive", event -> { throw new IllegalStateException("broken subscriber"); });
+        InvalidationBus.subscribe("test.other", event -> fail("Other topics should not be notified"));
+
+        InvalidationBus.receive("other-node|test.receive|42");
+        InvalidationBus.receive(InvalidationBus.NODE_ID + "|test.receive|43");
+        InvalidationBus.receive("other-node|test.receive");
+        InvalidationBus.receive("garbage");
+
+        assertEquals("Own events are skipped and failing subscribers don't stop delivery", asList("42", null), keys);
+    }
+
+    @Test
+    public void testSessionInvalidatedByHash() {
+        Session session = new Session();
+        session.setToken("secret-token");
+        String hash = SessionDB.tokenHash("secret-token");
+        assertEquals(64, hash.length());
+        assertFalse(hash.contains("secret"));
+
+        SessionDB.getSessionCache().put(hash, session);
+        InvalidationBus.receive("other-node|" + InvalidationBus.SESSION + "|" + hash);
+        assertFalse(SessionDB.getSessionCache().containsKey(hash));
+    }
+
+    @Test
+    public void testPublishDisabled() {
+        // Disabled by default: no statement should be prepared on the connection.
+        InvalidationBus.publish(null, InvalidationBus.SESSION, "token");
+    }
+}
@@ -0,0 +1,41 @@
+package org.servantscode.commons.db;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class MigrationTest {
+
+    @Test
+    public void testChecksum() {
+        Migration migration = Migration.sql(1, "Add notes", "ALTER TABLE people ADD COLUMN notes TEXT");
+        assertEquals("Line endings and padding don't change the checksum",
+                     migration.getChecksum(), Migration.sql(1, "Renamed", "  ALTER TABLE people ADD COLUMN notes TEXT\r\n").getChecksum());
+        assertTrue(migration.getChecksum() != Migration.sql(1, "Add notes", "ALTER TABLE people ADD COLUMN notes VARCHAR").getChecksum());
+        assertTrue("Statement boundaries count",
+                   Migration.sql(2, "", "SELECT 1", "SELECT 2").getChecksum() != Migration.sql(2, "", "SELECT 1SELECT 2").getChecksum());
+
+        Migration code = Migration.code(3, "Backfill", "r1", conn -> {});
+        assertEquals(code.getChecksum(), Migration.code(3, "Backfill", "r1", conn -> { throw new IllegalStateException(); }).getChecksum());
+        assertTrue(code.getChecksum() != Migration.code(3, "Backfill", "r2", conn -> {}).getChecksum());
+    }
+
+    @Test
+    public void testSort() {
+        List<Migration> sorted = AbstractDBUpgrade.sortMigrations(asList(Migration.sql(3, "c"), Migration.sql(1, "a"), Migration.sql(2, "b")));
+        assertEquals(asList(1, 2, 3), asList(sorted.get(0).getVersion(), sorted.get(1).getVersion(), sorted.get(2).getVersion()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateVersion() {
+        AbstractDBUpgrade.sortMigrations(asList(Migration.sql(1, "a"), Migration.sql(1, "b")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidVersion() {
+        Migration.sql(0, "zero");
+    }
+}
@@ -0,0 +1,209 @@
+package org.servantscode.commons.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.servantscode.commons.security.OrganizationContext;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class QueryCacheTest {
+    private final List<String> queries = new ArrayList<>();
+
+    private static class MinistryDB extends EasyDB<String> {
+        MinistryDB() {
+            super(String.class, "name");
+            enableResultCache(60);
+        }
+
+        List<String> byName(String name) { return get(select("name").from("ministries m").where("name=?", name)); }
+        int countAll() { return getCount(selectCount().from("ministries")); }
+        void remove(int id) { delete(deleteFrom("ministries").withId(id)); }
+
+        @Override
+        protected String processRow(ResultSet rs) throws SQLException { return rs.getString(1); }
+    }
+
+    private static class GroupDB extends EasyDB<StringBuilder> {
+        GroupDB(boolean copied) {
+            super(StringBuilder.class, "name");
+            if(copied)
+                enableResultCache(60, StringBuilder::new);
+            else
+                enableResultCache(60);
+        }
+
+        StringBuilder byName(String name) { return getOne(select("name").from("groups").where("name=?", name)); }
+
+        @Override
+        protected StringBuilder processRow(ResultSet rs) throws SQLException { return new StringBuilder(rs.getString(1)); }
+    }
+
+    private static class FundDB extends EasyDB<String> {
+        FundDB() { super(String.class, "name"); }
+
+        void remove(int id) { delete(deleteFrom("funds").withId(id)); }
+
+        @Override
+        protected String processRow(ResultSet rs) throws SQLException { return rs.getString(1); }
+    }
+
+    @Before
+    public void setUp() {
+        FakeJdbc.install(() -> FakeJdbc.connection(this::query));
+    }
+
+    @After
+    public void tearDown() {
+        QueryCache.clearAll();
+        ReplicaRouting.clear();
+        DBAccess.setConnectionFactory(null);
+    }
+
+    @Test
+    public void testReadTables() {
+        String sql = "SELECT * FROM person p, family AS f LEFT JOIN donations d ON d.person_id=p.id " +
+                     "WHERE p.id IN (SELECT person_id FROM public.\"Pledges\") ORDER BY p.name";
+        assertEquals(asList("person", "family", "donations", "pledges"), asList(QueryCache.readTables(sql)));
+        assertEquals(asList("person", "people_view"), asList(QueryCache.readTables("SELECT * FROM person WHERE id=?", "People_View")));
+    }
+
+    @Test
+    public void testWriteTables() {
+        assertEquals(asList("ministries"), asList(QueryCache.writeTables("INSERT INTO ministries(name) VALUES (?) ON CONFLICT (id) DO UPDATE SET name=?")));
+        assertEquals(asList("funds"), asList(QueryCache.writeTables("UPDATE public.funds SET name=? WHERE id=?")));
+        assertEquals(asList("fund_items"), asList(QueryCache.writeTables("DELETE FROM fund_items WHERE id=?")));
+        assertEquals(0, QueryCache.writeTables("SELECT refresh_everything()").length);
+    }
+
+    @Test
+    public void testCachedRead() {
+        MinistryDB db = new MinistryDB();
+        assertEquals(asList("ministries:1"), db.byName("choir"));
+        assertEquals(asList("ministries:1"), new MinistryDB().byName("choir"));
+        assertEquals("Shared by every instance of the DAO", 1, queries.size());
+
+        db.byName("ushers");
+        assertEquals("Bound values are part of the key", 2, queries.size());
+
+        List<String> results = db.byName("choir");
+        results.add("changed");
+        assertEquals("Callers get their own list", 1, db.byName("choir").size());
+
+        db.countAll();
+        db.countAll();
+        assertEquals(3, queries.size());
+    }
+
+    @Test
+    public void testRowsCopied() {
+        GroupDB db = new GroupDB(true);
+        db.byName("youth").append(" changed");
+        assertEquals("groups:1", db.byName("youth").toString());
+        assertEquals(1, queries.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMutableRowsNeedCopier() {
+        new GroupDB(false);
+    }
+
+    @Test
+    public void testWriteInvalidates() {
+        MinistryDB db = new MinistryDB();
+        db.byName("choir");
+        new FundDB().remove(1);
+        db.byName("choir");
+        assertEquals("Writes to other tables keep the entry", 1, queries.size());
+
+        db.remove(1);
+        assertEquals(asList("ministries:2"), db.byName("choir"));
+        assertEquals(2, queries.size());
+    }
+
+    @Test
+    public void testTransaction() {
+        MinistryDB db = new MinistryDB();
+        db.byName("choir");
+        TransactionTemplate.DEFAULT.run(conn -> {
+            db.remove(1);
+            db.byName("choir");
+            assertEquals("Reads inside a transaction bypass the cache", 2, queries.size());
+        });
+        db.byName("choir");
+        assertEquals(3, queries.size());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testLegacyTransaction() throws SQLException {
+        MinistryDB writer = new MinistryDB();
+        Connection conn = writer.startTransaction();
+        writer.remove(1);
+        new MinistryDB().byName("choir");
+        new MinistryDB().byName("choir");
+        assertEquals("Other DAOs still read and cache the committed rows", 1, queries.size());
+
+        conn.commit();
+        conn.close();
+        new MinistryDB().byName("choir");
+        assertEquals("Cached before the commit, so stale after it", 2, queries.size());
+    }
+
+    @Test
+    public void testSingleTenantKey() {
+        OrganizationContext.disableMultiTenancy();
+        try {
+            OrganizationContext.enableOrganization("parish.example.com");
+            MinistryDB db = new MinistryDB();
+            db.byName("choir");
+            db.byName("choir");
+            assertEquals(1, queries.size());
+        } finally {
+            OrganizationContext.enableMultiTenancy();
+            OrganizationContext.clearEnabledOrganization();
+        }
+    }
+
+    @Test
+    public void testUnknownOrganizationKey() {
+        OrganizationContext.getOrganizationCache().put("unknown.example.com", null);
+        try {
+            OrganizationContext.enableOrganization("unknown.example.com");
+            MinistryDB db = new MinistryDB();
+            db.byName("choir");
+            db.byName("choir");
+            assertEquals(1, queries.size());
+        } finally {
+            OrganizationContext.clearEnabledOrganization();
+            OrganizationContext.clearOrganizationCache();
+        }
+    }
+
+    @Test
+    public void testManualInvalidation() {
+        MinistryDB db = new MinistryDB();
+        db.byName("choir");
+        QueryCache.invalidate("Ministries");
+        db.byName("choir");
+        QueryCache.invalidate();
+        db.byName("choir");
+        assertEquals(3, queries.size());
+    }
+
+    // ----- Private -----
+    // Each query returns one row naming the first table in its sql and how many queries have run.
+    private ResultSet query(String sql) {
+        queries.add(sql);
+        if(sql.contains("count(1)"))
+            return FakeJdbc.rows(new String[] {"count"}, new Object[] {1});
+        return FakeJdbc.rows(new String[] {"value"}, new Object[] {QueryCache.readTables(sql)[0] + ":" + queries.size()});
+    }
+}
@@ -0,0 +1,124 @@
+package org.servantscode.commons.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.servantscode.commons.search.InsertBuilder;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicaRoutingTest {
+    private boolean replicaBDown = false;
+
+    private static class Dao extends DBAccess {}
+
+    private static class PersonDB extends EasyDB<String> {
+        PersonDB() { super(String.class, "name"); }
+
+        @Override
+        protected String processRow(ResultSet rs) throws SQLException { return rs.getString(1); }
+    }
+
+    @Before
+    public void setUp() {
+        Map<String, FakeJdbc.ConnectionSource> replicas = new LinkedHashMap<>();
+        replicas.put("a", () -> connection("a"));
+        replicas.put("b", () -> connection("b"));
+        FakeJdbc.install(() -> connection("primary"), replicas);
+    }
+
+    @After
+    public void tearDown() {
+        ReplicaRouting.clear();
+        DBAccess.setConnectionFactory(null);
+    }
+
+    @Test
+    public void testReadsUseReplicas() throws SQLException {
+        Dao dao = new Dao();
+        String first = dao.getReadConnection().getCatalog();
+        String second = dao.getReadConnection().getCatalog();
+        assertTrue(first.equals("a") && second.equals("b") || first.equals("b") && second.equals("a"));
+        assertEquals("primary", dao.getConnection().getCatalog());
+    }
+
+    @Test
+    public void testReadYourWrites() throws SQLException {
+        Dao dao = new Dao();
+        ReplicaRouting.pinToPrimary();
+        assertEquals("primary", dao.getReadConnection().getCatalog());
+        assertEquals("primary", dao.getReadConnection().getCatalog());
+
+        ReplicaRouting.clear();
+        assertFalse(dao.getReadConnection().getCatalog().equals("primary"));
+    }
+
+    @Test
+    public void testPinCarriedToOtherThreads() throws Exception {
+        ReplicaRouting.pinToPrimary();
+        Supplier<Boolean> pinned = ReplicaRouting.wrap(ReplicaRouting::isPinned);
+        ReplicaRouting.clear();
+
+        boolean[] result = new boolean[1];
+        Thread t = new Thread(() -> result[0] = pinned.get());
+        t.start();
+        t.join();
+        assertTrue(result[0]);
+    }
+
+    @Test
+    public void testWriteConnectionPins() throws SQLException {
+        Dao dao = new Dao();
+        assertEquals("primary", dao.getWriteConnection().getCatalog());
+        assertEquals("primary", dao.getReadConnection().getCatalog());
+    }
+
+    @Test
+    public void testAsyncWritePinsCaller() throws SQLException {
+        PersonDB db = new PersonDB();
+        assertTrue(db.createAsync(new InsertBuilder().into("people").value("name", "Smith")).join());
+        assertEquals("primary", db.getReadConnection().getCatalog());
+    }
+
+    @Test
+    public void testTransactionReadsUsePrimary() {
+        Dao dao = new Dao();
+        dao.inTransaction(conn -> {
+            try {
+                assertEquals("primary", dao.getReadConnection().getCatalog());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testFailedReplicaEjected() throws SQLException {
+        replicaBDown = true;
+        Dao dao = new Dao();
+        for(int i = 0; i < 4; i++)
+            assertEquals("a", dao.getReadConnection().getCatalog());
+
+        ConnectionFactory.Replica b = DBAccess.getConnectionFactory().getReplicas().get(1);
+        assertEquals("b", b.getName());
+        assertFalse(b.isHealthy());
+    }
+
+    // ----- Private -----
+    // Connections report the name of the source they came from as their catalog.
+    private Connection connection(String name) throws SQLException {
+        if(name.equals("b") && replicaBDown)
+            throw new SQLException("Connection refused.");
+        return FakeJdbc.connection(name, null, null);
+    }
+}
@@ -0,0 +1,101 @@
+package org.servantscode.commons.db;
+
+import org.junit.After;
+import org.junit.Test;
+import org.servantscode.commons.db.SlowQueryLog.SlowQuery;
+import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.commons.search.UpdateBuilder;
+
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+public class SlowQueryLogTest {
+
+    private QueryBuilder query(String name) {
+        return new QueryBuilder().select("*").from("person")
+                .where("name=?", name)
+                .whereIdIn("family_id", new QueryBuilder().select("id").from("family").where("moved_in > ?", LocalDate.of(2020, 1, 1)));
+    }
+
+    @After
+    public void tearDown() {
+        SlowQueryLog.clearThresholds();
+        SlowQueryLog.clear();
+        DBAccess.setConnectionFactory(null);
+    }
+
+    @Test
+    public void testThreshold() {
+        SlowQueryLog.record(query("Smith"), MILLISECONDS.toNanos(5));
+        assertTrue("Under the default threshold", SlowQueryLog.getRecent(10).isEmpty());
+
+        SlowQueryLog.setThreshold(query("any").getSql(), 2);
+        SlowQueryLog.record(query("Smith"), MILLISECONDS.toNanos(5));
+        SlowQueryLog.record(query("Smith"), MILLISECONDS.toNanos(1));
+        assertEquals(1, SlowQueryLog.getRecent(10).size());
+    }
+
+    @Test
+    public void testRecordedEntry() {
+        SlowQueryLog.setThreshold(query("any").getSql(), 0);
+        SlowQueryLog.record(query("Smith"), MILLISECONDS.toNanos(12));
+        SlowQueryLog.record(query("Jones"), MILLISECONDS.toNanos(30));
+
+        List<SlowQuery> recent = SlowQueryLog.getRecent(10);
+        assertEquals(2, recent.size());
+        SlowQuery latest = recent.get(0);
+        assertEquals("Newest first", 30, latest.getElapsedMs());
+        assertSame(latest, SlowQueryLog.get(latest.getId()));
+        assertEquals("Text values should be redacted, sub-query values included",
+                asList("<text:5>", "2020-01-01"), latest.getValues());
+        assertTrue(latest.isExplainable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdatesNotExplained() {
+        UpdateBuilder update = new UpdateBuilder().update("person").value("name", "Smith");
+        SlowQueryLog.setThreshold(update.getSql(), 0);
+        SlowQueryLog.record(update, MILLISECONDS.toNanos(10));
+
+        SlowQuery entry = SlowQueryLog.getRecent(1).get(0);
+        assertFalse(entry.isExplainable());
+        SlowQueryLog.explain(entry.getId());
+    }
+
+    @Test
+    public void testExplainNeedsReplica() throws Exception {
+        SlowQueryLog.setThreshold(query("any").getSql(), 0);
+        SlowQueryLog.record(query("Smith"), MILLISECONDS.toNanos(10));
+
+        SlowQuery entry = SlowQueryLog.explain(SlowQueryLog.getRecent(1).get(0).getId()).get();
+        assertNull(entry.getPlan());
+        assertNotNull("Should not explain on the primary by default", entry.getExplainError());
+    }
+
+    @Test
+    public void testExplainRolledBack() throws Exception {
+        List<String> calls = new ArrayList<>();
+        FakeJdbc.install(() -> FakeJdbc.connection(null),
+                singletonMap("replica", () -> FakeJdbc.connection("replica", calls, sql -> plan(sql, calls))));
+        SlowQueryLog.setThreshold(query("any").getSql(), 0);
+        SlowQueryLog.record(query("Smith"), MILLISECONDS.toNanos(10));
+
+        SlowQuery entry = SlowQueryLog.explain(SlowQueryLog.getRecent(1).get(0).getId()).get();
+        assertEquals("Seq Scan on person\n", entry.getPlan());
+        assertEquals(asList("setAutoCommit(false)", "execute(SET TRANSACTION READ ONLY)", "EXPLAIN", "rollback", "setAutoCommit(true)", "close"), calls);
+    }
+
+    // ----- Private -----
+    // Records the query and returns a one line plan.
+    private ResultSet plan(String sql, List<String> calls) {
+        calls.add(sql.substring(0, 7));
+        return FakeJdbc.rows(new String[] {"QUERY PLAN"}, new Object[] {"Seq Scan on person"});
+    }
+}
@@ -0,0 +1,176 @@
+package org.servantscode.commons.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class TransactionTemplateTest {
+    private final List<List<String>> connections = new ArrayList<>();
+
+    private static class Dao extends DBAccess {}
+
+    @Before
+    public void setUp() {
+        FakeJdbc.install(this::recordingConnection);
+    }
+
+    @After
+    public void tearDown() {
+        DBAccess.setConnectionFactory(null);
+    }
+
+    @Test
+    public void testCommit() {
+        String result = TransactionTemplate.DEFAULT.execute(conn -> "done");
+        assertEquals("done", result);
+        assertEquals(asList("setAutoCommit(false)", "commit", "setAutoCommit(true)", "close"), connections.get(0));
+        assertFalse(TransactionTemplate.isActive());
+    }
+
+    @Test
+    public void testRollback() {
+        try {
+            TransactionTemplate.DEFAULT.execute(conn -> { throw new IllegalArgumentException("bad"); });
+            fail("Exception should propagate");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad", e.getMessage());
+        }
+        assertEquals(asList("setAutoCommit(false)", "rollback", "setAutoCommit(true)", "close"), connections.get(0));
+    }
+
+    @Test
+    public void testOptions() {
+        new TransactionTemplate().isolation(Connection.TRANSACTION_SERIALIZABLE).readOnly().execute(conn -> null);
+        assertEquals(asList("setTransactionIsolation(8)", "setReadOnly(true)", "setAutoCommit(false)", "commit",
+                            "setAutoCommit(true)", "setReadOnly(false)", "setTransactionIsolation(2)", "close"), connections.get(0));
+    }
+
+    @Test
+    public void testRetrySerializationFailure() {
+        AtomicInteger attempts = new AtomicInteger();
+        int result = TransactionTemplate.DEFAULT.execute(conn -> {
+            if(attempts.incrementAndGet() < 3)
+                throw new RuntimeException("Could not update item.", new SQLException("conflict", "40001"));
+            return attempts.get();
+        });
+        assertEquals(3, result);
+        assertEquals("Each attempt should get a fresh transaction", 3, connections.size());
+    }
+
+    @Test
+    public void testNoRetryOnOtherFailures() {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            TransactionTemplate.DEFAULT.execute(conn -> {
+                attempts.incrementAndGet();
+                throw new RuntimeException("Could not update item.", new SQLException("duplicate", "23505"));
+            });
+            fail("Exception should propagate");
+        } catch (RuntimeException e) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void testNestedSavepoint() {
+        TransactionTemplate.DEFAULT.run(conn -> {
+            try {
+                TransactionTemplate.DEFAULT.run(inner -> { throw new IllegalStateException("nested"); });
+            } catch (IllegalStateException e) {
+                // Outer transaction carries on.
+            }
+            TransactionTemplate.DEFAULT.run(inner -> assertSame(conn, inner));
+        });
+        assertEquals(1, connections.size());
+        assertEquals(asList("setAutoCommit(false)", "setSavepoint", "rollback(savepoint)", "setSavepoint", "releaseSavepoint(savepoint)",
+                            "commit", "setAutoCommit(true)", "close"), connections.get(0));
+    }
+
+    @Test
+    public void testDaoJoinsTransaction() throws SQLException {
+        Dao dao = new Dao();
+        assertFalse(dao.inTransaction());
+        dao.inTransaction(conn -> {
+            assertTrue(dao.inTransaction());
+            try (Connection daoConn = new Dao().getConnection()) {
+                assertSame(conn, daoConn);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+        assertEquals("Closing the dao connection should not end the transaction", 1, connections.size());
+        assertEquals("close", connections.get(0).get(connections.get(0).size() - 1));
+
+        dao.getConnection().close();
+        assertEquals("Outside a transaction each call gets its own connection", 2, connections.size());
+    }
+
+    @Test
+    public void testManagedConnection() {
+        TransactionTemplate.DEFAULT.run(conn -> {
+            try {
+                conn.commit();
+                fail("Commit belongs to the template");
+            } catch (IllegalStateException | SQLException e) {
+                // expected
+            }
+        });
+    }
+
+    @Test
+    public void testNotVisibleToOtherThreads() throws InterruptedException {
+        AtomicBoolean otherThreadActive = new AtomicBoolean(true);
+        TransactionTemplate.DEFAULT.run(conn -> {
+            Thread t = new Thread(() -> otherThreadActive.set(TransactionTemplate.isActive()));
+            t.start();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertFalse(otherThreadActive.get());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testInvalidateAfterWrite() throws SQLException {
+        Dao dao = new Dao();
+        AtomicInteger invalidations = new AtomicInteger();
+        dao.invalidateAfterWrite(invalidations::incrementAndGet);
+        assertEquals("Outside a transaction once is enough", 1, invalidations.get());
+
+        dao.inTransaction(conn -> {
+            dao.invalidateAfterWrite(invalidations::incrementAndGet);
+            assertEquals(2, invalidations.get());
+            return null;
+        });
+        assertEquals("Again once the transaction completes", 3, invalidations.get());
+
+        try (Connection conn = dao.startTransaction()) {
+            dao.invalidateAfterWrite(invalidations::incrementAndGet);
+            assertEquals(4, invalidations.get());
+            conn.commit();
+        }
+        assertEquals("Legacy transactions invalidate again on commit", 5, invalidations.get());
+    }
+
+    // ----- Private -----
+    // Records the transaction related calls made on each connection handed out.
+    private Connection recordingConnection() {
+        List<String> calls = new ArrayList<>();
+        connections.add(calls);
+        return FakeJdbc.connection(null, calls, null);
+    }
+}
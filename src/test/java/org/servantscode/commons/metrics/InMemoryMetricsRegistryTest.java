@@ -0,0 +1,67 @@
+package org.servantscode.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InMemoryMetricsRegistryTest {
+
+    @Test
+    public void testTimer() {
+        InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+        for(int i = 1; i <= 100; i++)
+            registry.recordTime("db.query.time", "SELECT 1", MILLISECONDS.toNanos(i));
+
+        InMemoryMetricsRegistry.Histogram timer = registry.getTimer("db.query.time", "SELECT 1");
+        assertEquals(100, timer.getCount());
+        assertEquals(100_000, timer.getMax());
+        assertEquals("p50 should be the upper bound of its bucket", 50_000, timer.percentile(0.5));
+        assertEquals("p99 should be capped at the max", 100_000, timer.percentile(0.99));
+    }
+
+    @Test
+    public void testCountersAndValues() {
+        InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+        registry.increment("db.errors", "a");
+        registry.increment("db.errors", "a");
+        registry.recordValue("db.query.rows", "a", 7);
+        assertEquals(2, registry.getCount("db.errors", "a"));
+        assertEquals(0, registry.getCount("db.errors", "b"));
+        assertEquals(7, registry.getValues("db.query.rows", "a").getSum());
+        assertNull(registry.getValues("db.query.rows", "b"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSnapshotOrderedByTotalTime() {
+        InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+        registry.recordTime("db.query.time", "fast", MILLISECONDS.toNanos(1));
+        registry.recordTime("db.query.time", "slow", MILLISECONDS.toNanos(30));
+        registry.recordTime("db.query.time", "frequent", MILLISECONDS.toNanos(10));
+        registry.recordTime("db.query.time", "frequent", MILLISECONDS.toNanos(10));
+        registry.recordTime("db.query.time", "frequent", MILLISECONDS.toNanos(15));
+        registry.gauge("db.pool.active", "primary", () -> 3);
+
+        Map<String, Object> snapshot = registry.snapshot(2);
+        Map<String, Map<String, Object>> timers = ((Map<String, Map<String, Map<String, Object>>>) snapshot.get("timers")).get("db.query.time");
+        assertEquals("[frequent, slow]", timers.keySet().toString());
+        assertEquals(35.0, timers.get("frequent").get("total"));
+        assertEquals(3, ((Map<String, Map<String, Object>>) snapshot.get("gauges")).get("db.pool.active").get("primary"));
+    }
+
+    @Test
+    public void testShape() {
+        assertEquals("SELECT * FROM person WHERE id IN (?..) AND name=? AND org_id=?",
+                Metrics.shape("SELECT * FROM person WHERE id IN (?, ?, ?) AND name='O''Brien' AND org_id=4"));
+        assertEquals("INSERT INTO person(name, age) VALUES (?..)..",
+                Metrics.shape("INSERT INTO person(name, age) VALUES (?, ?), (?, ?),\n (?, ?)"));
+        assertEquals("Shapes should not depend on the number of rows inserted",
+                Metrics.shape("INSERT INTO person(name, age) VALUES (?, ?), (?, ?)"),
+                Metrics.shape("INSERT INTO person(name, age) VALUES (?, ?), (?, ?), (?, ?)"));
+        assertEquals("SELECT t1.col2 FROM t1", Metrics.shape("SELECT  t1.col2\nFROM t1"));
+    }
+}
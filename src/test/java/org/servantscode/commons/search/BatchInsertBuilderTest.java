@@ -0,0 +1,114 @@
+package org.servantscode.commons.search;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class BatchInsertBuilderTest {
+    private enum Role {ADMIN, MEMBER};
+
+    private static class Member {
+        String name;
+        LocalDate joined;
+        Role role;
+
+        Member(String name, LocalDate joined, Role role) {
+            this.name = name;
+            this.joined = joined;
+            this.role = role;
+        }
+    }
+
+    private BatchInsertBuilder<Member> members() {
+        return new BatchInsertBuilder<Member>().into("member")
+                .valueSource("name", m -> m.name)
+                .value("org_id", 5)
+                .valueSource("joined", m -> m.joined);
+    }
+
+    @Test
+    public void testMultiRowSql() {
+        assertEquals("INSERT INTO member (name, org_id, joined) VALUES (?, ?, ?), (?, ?, ?)", members().getMultiRowSql(2));
+    }
+
+    @Test
+    public void testRowsPerStatementRespectsParameterLimit() {
+        BatchInsertBuilder<Member> cmd = new BatchInsertBuilder<Member>().into("member").rowsPerStatement(5000);
+        for(int i=0; i<40; i++)
+            cmd.valueSource("col_" + i, m -> m.name);
+        assertEquals(BatchInsertBuilder.MAX_BIND_PARAMETERS / 40, cmd.getRowsPerStatement());
+        assertEquals(1000, members().getRowsPerStatement());
+    }
+
+    @Test
+    public void testMultiRowExecuteChunks() throws Exception {
+        List<String> statements = new ArrayList<>();
+        Map<Integer, Object> bound = new HashMap<>();
+        Connection conn = recordingConnection(statements, bound);
+
+        BatchInsertBuilder<Member> cmd = members().mode(BatchInsertBuilder.InsertMode.MULTI_ROW).rowsPerStatement(2);
+        for(int i=0; i<5; i++)
+            cmd.addBatch(new Member("m" + i, null, Role.MEMBER));
+
+        assertEquals(5, cmd.execute(conn));
+        assertEquals(asList(cmd.getMultiRowSql(2), cmd.getMultiRowSql(2), cmd.getMultiRowSql(1)), statements);
+        assertEquals("Columns should bind in field order", "m4", bound.get(1));
+        assertEquals(5, bound.get(2));
+    }
+
+    @Test
+    public void testCopySql() {
+        assertEquals("COPY member (name, org_id, joined) FROM STDIN WITH (FORMAT csv)", members().getCopySql());
+    }
+
+    @Test
+    public void testCopyEncoding() {
+        BatchInsertBuilder<Member> cmd = new BatchInsertBuilder<Member>().into("member")
+                .valueSource("name", m -> m.name)
+                .valueSource("joined", m -> m.joined)
+                .valueSource("role", m -> m.role)
+                .value("active", true)
+                .value("score", 2.5);
+
+        StringBuilder out = new StringBuilder();
+        cmd.encodeCopyRow(out, new Member("Joe \"JJ\" Smith, Jr.", LocalDate.of(2020, 2, 1), Role.ADMIN));
+        cmd.encodeCopyRow(out, new Member("", null, null));
+        assertEquals("\"Joe \"\"JJ\"\" Smith, Jr.\",\"2020-02-01\",\"ADMIN\",true,2.5\n" +
+                     "\"\",,,true,2.5\n", out.toString());
+    }
+
+    // ----- Private -----
+    // Records prepared sql and the last value bound at each position. executeUpdate reports one row per row group.
+    private static Connection recordingConnection(List<String> statements, Map<Integer, Object> bound) {
+        return (Connection) Proxy.newProxyInstance(BatchInsertBuilderTest.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if(!method.getName().equals("prepareStatement"))
+                        return null;
+
+                    String sql = (String) args[0];
+                    statements.add(sql);
+                    return Proxy.newProxyInstance(BatchInsertBuilderTest.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                            (stmtProxy, stmtMethod, stmtArgs) -> {
+                                switch (stmtMethod.getName()) {
+                                    case "setObject":
+                                        bound.put((Integer) stmtArgs[0], stmtArgs[1]);
+                                        return null;
+                                    case "executeUpdate":
+                                        return sql.split("\\(\\?").length - 1;
+                                    default:
+                                        return null;
+                                }
+                            });
+                });
+    }
+}
@@ -58,4 +58,16 @@ public class InsertBuilderTest {
                 "ON CONFLICT (activity_id, person_id) DO NOTHING", cmd.getSql());
 
     }
+
+    @Test
+    public void testInsertBuilderReturning(){
+        InsertBuilder cmd = new InsertBuilder().into("entity").value("col_1", 7).returning("id", "created_time");
+        assertEquals("INSERT INTO entity (col_1)  VALUES (?) RETURNING id, created_time", cmd.getSql());
+    }
+
+    @Test
+    public void testDeleteBuilderReturning(){
+        DeleteBuilder cmd = new DeleteBuilder().delete("entity").where("id=?", 7).returning("*");
+        assertEquals("DELETE FROM entity WHERE id=? RETURNING *", cmd.getSql());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package org.servantscode.commons.search;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PageTokenTest {
+
+    @Test
+    public void testRoundTrip() {
+        List<Object> values = Arrays.asList("Smith", 7, 8L, 1.5, new BigDecimal("10.25"), true,
+                                            LocalDate.of(2020, 1, 1), ZonedDateTime.parse("2020-01-01T10:15:30Z"), null);
+        assertEquals(values, PageToken.decode(PageToken.encode(values)));
+    }
+
+    @Test
+    public void testNext() {
+        List<Object[]> rows = Arrays.asList(new Object[] {"2020-01-01", 3}, new Object[] {"2020-01-02", 7});
+        String token = PageToken.next(rows, 2, row -> Arrays.asList(row));
+        assertEquals(Arrays.asList("2020-01-02", 7), PageToken.decode(token));
+
+        assertNull("A short page is the last one", PageToken.next(rows, 3, row -> Arrays.asList(row)));
+        assertNull(PageToken.next(Collections.<Object[]>emptyList(), 2, row -> Arrays.asList(row)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNextNullSortValue() {
+        PageToken.next(Collections.singletonList(new Object[] {null, 7}), 1, row -> Arrays.asList(row));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidToken() {
+        PageToken.decode("not a token");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedValue() {
+        PageToken.encode(new Object());
+    }
+}
@@ -0,0 +1,48 @@
+package org.servantscode.commons.search;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class QueryTemplateTest {
+
+    private QueryBuilder shape() {
+        return new QueryBuilder().select("*").from("person")
+                .where("last_name=?", "Smith")
+                .whereIdIn("family_id", new QueryBuilder().select("id").from("family").where("active=?", true))
+                .limit(10).offset(20);
+    }
+
+    @Test
+    public void testTemplateSql() {
+        QueryTemplate template = QueryTemplate.of(shape());
+        assertEquals("SELECT * FROM person WHERE last_name=? AND family_id IN (SELECT id FROM family WHERE active=?) LIMIT ? OFFSET ?",
+                template.getSql());
+        assertEquals("Sub-query values should be counted", 4, template.getParameterCount());
+    }
+
+    @Test
+    public void testBind() {
+        QueryTemplate template = QueryTemplate.of(shape());
+        QueryBuilder query = template.bind("Jones", false, 25, 50);
+        assertSame("Bound queries should share the template sql", template.getSql(), query.getSql());
+        assertEquals(4, query.values.size());
+    }
+
+    @Test
+    public void testSqlGeneratedOnce() {
+        QueryBuilder query = shape();
+        assertSame(query.getSql(), query.getSql());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBindWrongValueCount() {
+        QueryTemplate.of(shape()).bind("Jones");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBoundQueryCannotChange() {
+        QueryTemplate.of(shape()).bind("Jones", false, 25, 50).where("id=?", 1);
+    }
+}
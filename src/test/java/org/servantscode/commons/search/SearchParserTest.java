@@ -3,7 +3,9 @@ package org.servantscode.commons.search;
 import org.junit.Test;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 
 public class SearchParserTest {
@@ -193,6 +195,46 @@ public class SearchParserTest {
         assertEquals("Incorrect clause", "date:[1990-01-01 TO 2000-01-01]", clauses[2]);
     }
 
+    @Test
+    public void testSearchParseCached() {
+        long hits = SearchParser.getSearchCache().getHitCount();
+        Search first = parser.parse("name:cached AND male:true");
+        Search second = parser.parse("name:cached AND male:true");
+        assertEquals("Repeat search should be served from cache", hits + 1, SearchParser.getSearchCache().getHitCount());
+        assertEquals(first.getSql(), second.getSql());
+
+        ((Search.CompoundClause) first.getClauses().get(0)).addClause(new Search.BooleanClause("active", true));
+        assertEquals("Cached clauses should not be shared", "(name ILIKE ? AND male = ?)", parser.parse("name:cached AND male:true").getSql());
+    }
+
+    @Test
+    public void testSearchParseCachedSkipsTokenizing() {
+        AtomicInteger tokenized = new AtomicInteger();
+        SearchParser<TestClass> countingParser = new SearchParser<TestClass>(TestClass.class) {
+            @Override
+            public String[] parseText(String searchString) {
+                tokenized.incrementAndGet();
+                return super.parseText(searchString);
+            }
+        };
+
+        countingParser.parse("name:tokenized AND male:false");
+        countingParser.parse("name:tokenized AND male:false");
+        assertEquals(1, tokenized.get());
+    }
+
+    @Test
+    public void testSearchParseValueTransformNotCached() {
+        FieldTransformer transformer = new FieldTransformer();
+        AtomicInteger calls = new AtomicInteger();
+        transformer.put("name", "name", value -> value + calls.incrementAndGet());
+        SearchParser<TestClass> transformingParser = new SearchParser<>(TestClass.class, "name", transformer);
+
+        transformingParser.parse("name:foo");
+        assertEquals(asList("%foo2%"), transformingParser.parse("name:foo").getValues());
+        assertEquals(2, calls.get());
+    }
+
     @Test(expected = RuntimeException.class)
     public void testSearchParserFailsWithUnmatchedQuote() {
         String[] clauses = parser.parseText("name:\"Greg male:true date:1990-01-01");
@@ -0,0 +1,99 @@
+package org.servantscode.commons.search;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class UpsertBuilderTest {
+
+    @Test
+    public void testDefaultUpdatesExcluded() {
+        UpsertBuilder cmd = new UpsertBuilder().into("configuration")
+                .value("config", "a").value("value", "b").value("org_id", 1)
+                .onConflict("config", "org_id");
+        assertEquals("INSERT INTO configuration (config, value, org_id) VALUES (?, ?, ?) " +
+                     "ON CONFLICT (config, org_id) DO UPDATE SET value=EXCLUDED.value", cmd.getSql());
+    }
+
+    @Test
+    public void testExplicitUpdatesAndReturning() {
+        UpsertBuilder cmd = new UpsertBuilder().into("person")
+                .value("email", "a@b.com").value("name", "A")
+                .onConflict("email")
+                .updateExcluded("name").update("modified_count", 3)
+                .returning("id", "name");
+        assertEquals("INSERT INTO person (email, name) VALUES (?, ?) " +
+                     "ON CONFLICT (email) DO UPDATE SET name=EXCLUDED.name, modified_count=? RETURNING id, name", cmd.getSql());
+        assertEquals(asList("a@b.com", "A", 3), cmd.values);
+    }
+
+    @Test
+    public void testDoNothing() {
+        UpsertBuilder cmd = new UpsertBuilder().into("tag").value("name", "x").onConstraint("tag_name_key").doNothing();
+        assertEquals("INSERT INTO tag (name) VALUES (?) ON CONFLICT ON CONSTRAINT tag_name_key DO NOTHING", cmd.getSql());
+    }
+
+    @Test
+    public void testOnlyTargetFieldsDoesNothing() {
+        UpsertBuilder cmd = new UpsertBuilder().into("tag").value("name", "x").onConflict("name");
+        assertEquals("INSERT INTO tag (name) VALUES (?) ON CONFLICT (name) DO NOTHING", cmd.getSql());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUpdateRequiresTarget() {
+        new UpsertBuilder().into("tag").value("name", "x").updateExcluded("name").getSql();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testValueAfterConflict() {
+        new UpsertBuilder().into("tag").onConflict("name").value("name", "x");
+    }
+
+    @Test
+    public void testBatchMultiRowCollapsesDuplicateKeys() throws Exception {
+        List<String> statements = new ArrayList<>();
+        List<Object> bound = new ArrayList<>();
+        BatchUpsertBuilder<Map.Entry<String, String>> cmd = new BatchUpsertBuilder<Map.Entry<String, String>>().into("configuration")
+                .valueSource("config", Map.Entry::getKey)
+                .valueSource("value", Map.Entry::getValue)
+                .onConflict("config")
+                .addBatches(asList(new SimpleEntry<>("a", "1"), new SimpleEntry<>("b", "2"), new SimpleEntry<>("a", "3")))
+                .mode(BatchInsertBuilder.InsertMode.MULTI_ROW);
+
+        assertEquals(2, cmd.execute(recordingConnection(statements, bound)));
+        assertEquals(asList("INSERT INTO configuration (config, value) VALUES (?, ?), (?, ?) " +
+                            "ON CONFLICT (config) DO UPDATE SET value=EXCLUDED.value"), statements);
+        assertEquals("Last value for a key should win", asList("a", "3", "b", "2"), bound);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchRejectsCopy() {
+        new BatchUpsertBuilder<String>().mode(BatchInsertBuilder.InsertMode.COPY);
+    }
+
+    // ----- Private -----
+    private static Connection recordingConnection(List<String> statements, List<Object> bound) {
+        return (Connection) Proxy.newProxyInstance(UpsertBuilderTest.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if(!method.getName().equals("prepareStatement"))
+                        return null;
+
+                    statements.add((String) args[0]);
+                    return Proxy.newProxyInstance(UpsertBuilderTest.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                            (stmtProxy, stmtMethod, stmtArgs) -> {
+                                if(stmtMethod.getName().equals("setObject"))
+                                    bound.add(stmtArgs[1]);
+                                return stmtMethod.getName().equals("executeUpdate")? bound.size() / 2: null;
+                            });
+                });
+    }
+}
@@ -0,0 +1,89 @@
+package org.servantscode.commons.security;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestContextTest {
+
+    @After
+    public void clear() {
+        PermissionManager.clearEnabledPermissions();
+        ThreadContext.clearMap();
+    }
+
+    @Test
+    public void testPropagatesToOtherThread() throws Exception {
+        PermissionManager.enablePermissions(new String[] {"person.read"});
+        ThreadContext.put("transaction.id", "abc");
+        RequestContext context = RequestContext.capture();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            boolean canRead = CompletableFuture.supplyAsync(() -> context.call(() -> PermissionManager.canUser("person.read")), executor).get();
+            String transaction = CompletableFuture.supplyAsync(() -> context.call(() -> ThreadContext.get("transaction.id")), executor).get();
+            boolean leaked = CompletableFuture.supplyAsync(PermissionManager::hasEnabledPermissions, executor).get();
+
+            assertTrue(canRead);
+            assertEquals("abc", transaction);
+            assertFalse("Worker thread should be restored after the call", leaked);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWrappedExecutorService() throws Exception {
+        ExecutorService executor = ContextExecutors.wrap(Executors.newFixedThreadPool(2));
+        try {
+            PermissionManager.enablePermissions(new String[] {"person.read"});
+            assertTrue(executor.submit(() -> PermissionManager.canUser("person.read")).get());
+
+            PermissionManager.enablePermissions(new String[] {"family.read"});
+            assertFalse("Each submission should carry the submitter's current context",
+                        executor.submit(() -> PermissionManager.canUser("person.read")).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testForkJoinPoolParallelStream() throws Exception {
+        PermissionManager.enablePermissions(new String[] {"person.read"});
+        ForkJoinPool pool = ContextExecutors.newForkJoinPool(4);
+        try {
+            long allowed = pool.submit(() -> IntStream.range(0, 1000).parallel()
+                    .filter(i -> PermissionManager.canUser("person.read")).count()).get();
+            assertEquals(1000, allowed);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestoresPreviousState() {
+        PermissionManager.enablePermissions(new String[] {"person.read"});
+        RequestContext context = RequestContext.capture();
+
+        PermissionManager.clearEnabledPermissions();
+        ThreadContext.put("user", "worker");
+        context.run(() -> {
+            assertTrue(PermissionManager.canUser("person.read"));
+            assertNull(ThreadContext.get("user"));
+        });
+
+        assertFalse(PermissionManager.hasEnabledPermissions());
+        assertEquals("worker", ThreadContext.get("user"));
+    }
+}